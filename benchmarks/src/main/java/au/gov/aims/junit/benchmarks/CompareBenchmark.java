@@ -0,0 +1,112 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit.benchmarks;
+
+import au.gov.aims.junit.ImageComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of comparing decoded images, excluding the decoding.
+ *
+ * <p>The "parallel" parameter splits each comparison across the fork-join pool,
+ * the "concurrent" benchmark runs several comparisons at once (one per thread),
+ * like a test suite running in parallel.</p>
+ *
+ * <p>The 10000px size needs about 1GB of heap per image pair.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms6g", "-Xmx6g" })
+public class CompareBenchmark {
+
+    @Param({ "100", "1000", "4000", "10000" })
+    public int size;
+
+    @Param({ "INT_ARGB", "INT_RGB", "3BYTE_BGR", "4BYTE_ABGR", "BYTE_GRAY", "USHORT_565_RGB" })
+    public String imageType;
+
+    /**
+     * IDENTICAL: same pixels, different instances (the comparator must compare every pixel).
+     * DIFFERENT: every pixel is different.
+     */
+    @Param({ "IDENTICAL", "DIFFERENT" })
+    public String inputs;
+
+    @Param({ "false", "true" })
+    public boolean parallel;
+
+    private BufferedImage expectedImage;
+    private BufferedImage actualImage;
+    private ImageComparator comparator;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int type = SyntheticImages.getImageType(this.imageType);
+        this.expectedImage = SyntheticImages.create(this.size, this.size, type, false);
+        this.actualImage = "IDENTICAL".equals(this.inputs) ?
+                SyntheticImages.copy(this.expectedImage) :
+                SyntheticImages.create(this.size, this.size, type, true);
+        this.comparator = new ImageComparator().setParallel(this.parallel);
+    }
+
+    /**
+     * Full comparison, as done by getImageDifference.
+     */
+    @Benchmark
+    public double compare() throws IOException {
+        return this.comparator.getImageDifference(this.expectedImage, this.actualImage);
+    }
+
+    /**
+     * Comparison with a delta of 0, as done by assertEquals(expected, actual, 0).
+     * Different images stop on the first different pixel.
+     */
+    @Benchmark
+    public double compareExact() throws IOException {
+        return this.comparator.getImageDifference(this.expectedImage, this.actualImage, 0);
+    }
+
+    /**
+     * Full comparisons running on 4 threads at once.
+     */
+    @Benchmark
+    @Threads(4)
+    public double compareConcurrent() throws IOException {
+        return this.comparator.getImageDifference(this.expectedImage, this.actualImage);
+    }
+}
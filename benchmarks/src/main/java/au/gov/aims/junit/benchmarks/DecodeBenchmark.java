@@ -0,0 +1,87 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit.benchmarks;
+
+import au.gov.aims.junit.AssertImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of decoding PNG files compared to the cost of comparing them.
+ * Compare the "decode" score with {@link CompareBenchmark} to see where the time of an assertion goes.
+ *
+ * <p>The PNG files are encoded in memory, during the setup.
+ * The images are completely different, so the comparison can't skip the pixels.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms6g", "-Xmx6g" })
+public class DecodeBenchmark {
+
+    @Param({ "100", "1000", "4000", "10000" })
+    public int size;
+
+    @Param({ "INT_RGB", "4BYTE_ABGR", "BYTE_GRAY" })
+    public String imageType;
+
+    private byte[] expectedPng;
+    private byte[] actualPng;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int type = SyntheticImages.getImageType(this.imageType);
+        this.expectedPng = SyntheticImages.encodePng(SyntheticImages.create(this.size, this.size, type, false));
+        this.actualPng = SyntheticImages.encodePng(SyntheticImages.create(this.size, this.size, type, true));
+    }
+
+    /**
+     * Decoding one image, as done twice by every assertion.
+     */
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(this.expectedPng));
+    }
+
+    /**
+     * Decoding and comparing both images, as done by an assertion.
+     */
+    @Benchmark
+    public double decodeAndCompare() throws IOException {
+        return AssertImage.getImageDifference(this.expectedPng, this.actualPng);
+    }
+}
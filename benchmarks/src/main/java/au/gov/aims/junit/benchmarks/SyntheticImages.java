@@ -0,0 +1,103 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit.benchmarks;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Images generated in memory, so the benchmarks do not depend on files.
+ */
+public final class SyntheticImages {
+
+    private SyntheticImages() {}
+
+    /**
+     * The image types benchmarked, by name.
+     * The first ones have a fast path in the comparator, the last one uses the generic fallback.
+     */
+    public static int getImageType(String imageTypeName) {
+        switch (imageTypeName) {
+            case "INT_ARGB": return BufferedImage.TYPE_INT_ARGB;
+            case "INT_RGB": return BufferedImage.TYPE_INT_RGB;
+            case "3BYTE_BGR": return BufferedImage.TYPE_3BYTE_BGR;
+            case "4BYTE_ABGR": return BufferedImage.TYPE_4BYTE_ABGR;
+            case "BYTE_GRAY": return BufferedImage.TYPE_BYTE_GRAY;
+            case "USHORT_565_RGB": return BufferedImage.TYPE_USHORT_565_RGB;
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported image type: %s", imageTypeName));
+        }
+    }
+
+    /**
+     * Create an image with smooth gradients and some high frequency noise,
+     * so it compresses like a typical rendered image rather than like random data.
+     * @param inverted True to invert every colour, to create an image completely different from the original.
+     */
+    public static BufferedImage create(int width, int height, int imageType, boolean inverted) {
+        BufferedImage rgbImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] data = ((DataBufferInt)rgbImage.getRaster().getDataBuffer()).getData();
+
+        int mask = inverted ? 0xFFFFFF : 0;
+        for (int y=0; y<height; y++) {
+            int offset = y * width;
+            int blue = y * 255 / height;
+            for (int x=0; x<width; x++) {
+                int red = x * 255 / width;
+                int green = ((x ^ y) & 0x3F) * 4;
+                data[offset + x] = (red << 16 | green << 8 | blue) ^ mask;
+            }
+        }
+
+        if (imageType == BufferedImage.TYPE_INT_RGB) {
+            return rgbImage;
+        }
+
+        BufferedImage image = new BufferedImage(width, height, imageType);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.drawImage(rgbImage, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * @return A copy of the image, with the same pixels, as a different instance.
+     */
+    public static BufferedImage copy(BufferedImage image) {
+        return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * @return The image encoded as a PNG file, in memory.
+     */
+    public static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, "png", outputStream)) {
+            throw new IOException("No PNG writer available.");
+        }
+        return outputStream.toByteArray();
+    }
+}
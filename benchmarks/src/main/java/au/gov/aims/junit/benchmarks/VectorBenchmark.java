@@ -0,0 +1,83 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit.benchmarks;
+
+import au.gov.aims.junit.ImageComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scalar loop compared with the Vector API kernel, on large INT_ARGB rasters
+ * (no pixel conversion, so the time is spent summing the channel differences).
+ *
+ * <p>Needs Java 17 or later: the forks are started with the Vector API module enabled.
+ * When the Vector API is not available, both "vectorApi" values use the scalar loop.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms6g", "-Xmx6g", "--add-modules", "jdk.incubator.vector" })
+public class VectorBenchmark {
+
+    @Param({ "1000", "4000", "10000" })
+    public int size;
+
+    @Param({ "false", "true" })
+    public boolean vectorApi;
+
+    private BufferedImage expectedImage;
+    private BufferedImage actualImage;
+    private ImageComparator comparator;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (this.vectorApi && !ImageComparator.isVectorApiAvailable()) {
+            System.err.println("WARNING: The Vector API is not available, the scalar loop is used.");
+        }
+
+        int type = SyntheticImages.getImageType("INT_ARGB");
+        this.expectedImage = SyntheticImages.create(this.size, this.size, type, false);
+        this.actualImage = SyntheticImages.create(this.size, this.size, type, true);
+        this.comparator = new ImageComparator().setVectorApi(this.vectorApi);
+    }
+
+    /**
+     * Full comparison, as done by getImageDifference.
+     */
+    @Benchmark
+    public double compare() throws IOException {
+        return this.comparator.getImageDifference(this.expectedImage, this.actualImage);
+    }
+}
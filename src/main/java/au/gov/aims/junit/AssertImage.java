@@ -18,30 +18,167 @@
  */
 package au.gov.aims.junit;
 
-import javax.imageio.ImageIO;
-import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class AssertImage {
     public static final double SMALL_VALUE = 0.00000001;
 
+    private static volatile ImageComparator imageComparator = new ImageComparator();
+    private static volatile ImageCache imageCache = null;
+    private static volatile SignatureStore signatureStore = null;
+
+    /**
+     * System property used to collect the {@link ComparisonStatistics} of a test suite, without changing the tests.
+     * The value is the path of the JSON file written when the JVM shuts down.
+     * Example, with Maven: {@code mvn test -Dau.gov.aims.junit.statisticsFile=target/junit-image-statistics.json}
+     */
+    public static final String STATISTICS_FILE_PROPERTY = "au.gov.aims.junit.statisticsFile";
+
+    private static final ComparisonListener[] NO_LISTENERS = new ComparisonListener[0];
+    // Copied on write; the comparisons are not measured while the array is empty
+    private static volatile ComparisonListener[] comparisonListeners = NO_LISTENERS;
+
+    static {
+        String statisticsFile = System.getProperty(STATISTICS_FILE_PROPERTY);
+        if (statisticsFile != null && !statisticsFile.isEmpty()) {
+            ComparisonStatistics statistics = new ComparisonStatistics();
+            addComparisonListener(statistics);
+            statistics.writeJsonAtShutdown(new File(statisticsFile));
+        }
+    }
+
+    /**
+     * @return The comparator used by the assertions.
+     */
+    public static ImageComparator getImageComparator() {
+        return AssertImage.imageComparator;
+    }
+
+    /**
+     * Set the comparator used by the assertions.
+     * Used to enable the parallel comparison of large images.
+     * @param imageComparator The comparator, or null to restore the default sequential comparator.
+     */
+    public static void setImageComparator(ImageComparator imageComparator) {
+        AssertImage.imageComparator = imageComparator == null ? new ImageComparator() : imageComparator;
+    }
+
+    /**
+     * @return The cache of decoded expected images, or null if the cache is disabled.
+     */
+    public static ImageCache getImageCache() {
+        return AssertImage.imageCache;
+    }
+
+    /**
+     * Set the cache of decoded expected images.
+     * The cache is disabled by default.
+     * @param imageCache The cache, or null to disable the cache.
+     */
+    public static void setImageCache(ImageCache imageCache) {
+        AssertImage.imageCache = imageCache;
+    }
+
+    /**
+     * @return The store of the expected images signatures, or null if the store is disabled.
+     */
+    public static SignatureStore getSignatureStore() {
+        return AssertImage.signatureStore;
+    }
+
+    /**
+     * Set the store of the expected images signatures, kept between test runs.
+     * When an expected image file has a signature, the expected image is only decoded
+     * if the signature is not enough to compare the images.
+     * The store is disabled by default.
+     * NOTE: The signatures are only used with the default metric, when the diff reports are disabled.
+     * NOTE: The new signatures are only written when the store is saved (or closed), by the caller.
+     * @param signatureStore The store, or null to disable the store.
+     */
+    public static void setSignatureStore(SignatureStore signatureStore) {
+        AssertImage.signatureStore = signatureStore;
+    }
+
+    /**
+     * Register a listener notified after every comparison, with the time spent in each step.
+     * The comparisons are only measured while at least one listener is registered.
+     * @param listener The listener to add.
+     */
+    public static synchronized void addComparisonListener(ComparisonListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Comparison listener must not be null.");
+        }
+        ComparisonListener[] listeners = Arrays.copyOf(AssertImage.comparisonListeners, AssertImage.comparisonListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        AssertImage.comparisonListeners = listeners;
+    }
+
+    /**
+     * @param listener The listener to remove.
+     * @return True if the listener was registered.
+     */
+    public static synchronized boolean removeComparisonListener(ComparisonListener listener) {
+        List<ComparisonListener> listeners = new ArrayList<ComparisonListener>(Arrays.asList(AssertImage.comparisonListeners));
+        boolean removed = listeners.remove(listener);
+        AssertImage.comparisonListeners = listeners.isEmpty() ? NO_LISTENERS : listeners.toArray(NO_LISTENERS);
+        return removed;
+    }
+
     public static void assertEquals(File expected, File actual, double delta) {
         assertEquals(null, expected, actual, delta);
     }
 
     public static void assertEquals(String message, File expected, File actual, double delta) {
-        try {
-            double difference = AssertImage.getImageDifference(expected, actual);
+        assertEquals(message, ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), delta);
+    }
 
-            if (difference > delta) {
-                throw new AssertionError(getFailMessage(message, expected, actual, difference));
-            }
-        } catch(Exception ex) {
-            throw new AssertionError(getFailMessage(message, expected, actual, null), ex);
-        }
+    public static void assertEquals(Path expected, Path actual, double delta) {
+        assertEquals(null, expected, actual, delta);
+    }
+
+    public static void assertEquals(String message, Path expected, Path actual, double delta) {
+        assertEquals(message, ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), delta);
+    }
+
+    public static void assertEquals(byte[] expected, byte[] actual, double delta) {
+        assertEquals(null, expected, actual, delta);
+    }
+
+    public static void assertEquals(String message, byte[] expected, byte[] actual, double delta) {
+        assertEquals(message, ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), delta);
+    }
+
+    public static void assertEquals(InputStream expected, InputStream actual, double delta) {
+        assertEquals(null, expected, actual, delta);
+    }
+
+    public static void assertEquals(String message, InputStream expected, InputStream actual, double delta) {
+        assertEquals(message, ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), delta);
+    }
+
+    public static void assertEquals(BufferedImage expected, BufferedImage actual, double delta) {
+        assertEquals(null, expected, actual, delta);
+    }
+
+    public static void assertEquals(String message, BufferedImage expected, BufferedImage actual, double delta) {
+        assertEquals(message, ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), delta);
+    }
+
+    public static void assertEquals(Raster expected, Raster actual, double delta) {
+        assertEquals(null, expected, actual, delta);
+    }
+
+    public static void assertEquals(String message, Raster expected, Raster actual, double delta) {
+        assertEquals(message, ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), delta);
     }
 
     public static void assertNotEquals(File expected, File actual, double delta) {
@@ -49,10 +186,73 @@ public class AssertImage {
     }
 
     public static void assertNotEquals(String message, File expected, File actual, double delta) {
+        assertNotEquals(message, ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), delta);
+    }
+
+    public static void assertNotEquals(Path expected, Path actual, double delta) {
+        assertNotEquals(null, expected, actual, delta);
+    }
+
+    public static void assertNotEquals(String message, Path expected, Path actual, double delta) {
+        assertNotEquals(message, ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), delta);
+    }
+
+    public static void assertNotEquals(byte[] expected, byte[] actual, double delta) {
+        assertNotEquals(null, expected, actual, delta);
+    }
+
+    public static void assertNotEquals(String message, byte[] expected, byte[] actual, double delta) {
+        assertNotEquals(message, ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), delta);
+    }
+
+    public static void assertNotEquals(InputStream expected, InputStream actual, double delta) {
+        assertNotEquals(null, expected, actual, delta);
+    }
+
+    public static void assertNotEquals(String message, InputStream expected, InputStream actual, double delta) {
+        assertNotEquals(message, ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), delta);
+    }
+
+    public static void assertNotEquals(BufferedImage expected, BufferedImage actual, double delta) {
+        assertNotEquals(null, expected, actual, delta);
+    }
+
+    public static void assertNotEquals(String message, BufferedImage expected, BufferedImage actual, double delta) {
+        assertNotEquals(message, ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), delta);
+    }
+
+    public static void assertNotEquals(Raster expected, Raster actual, double delta) {
+        assertNotEquals(null, expected, actual, delta);
+    }
+
+    public static void assertNotEquals(String message, Raster expected, Raster actual, double delta) {
+        assertNotEquals(message, ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), delta);
+    }
+
+    private static void assertEquals(String message, ImageSource expected, ImageSource actual, double delta) {
         try {
-            double difference = AssertImage.getImageDifference(expected, actual);
+            // Stop comparing as soon as the images are known to be too different
+            ChannelDifference difference = AssertImage.getChannelDifference(expected, actual, delta);
 
-            if (difference <= delta) {
+            if (difference.isExceeded() || difference.getDifference() > delta) {
+                String failMessage = getFailMessage(message, expected, actual, difference);
+                DiffReport diffReport = difference.getDiffReport();
+                if (diffReport != null) {
+                    failMessage += String.format("%n%s", getDiffReportMessage(diffReport, actual));
+                }
+                throw new AssertionError(failMessage);
+            }
+        } catch(Exception ex) {
+            throw new AssertionError(getFailMessage(message, expected, actual, null), ex);
+        }
+    }
+
+    private static void assertNotEquals(String message, ImageSource expected, ImageSource actual, double delta) {
+        try {
+            // Stop comparing as soon as the images are known to be different enough
+            ChannelDifference difference = AssertImage.getChannelDifference(expected, actual, delta);
+
+            if (!difference.isExceeded() && difference.getDifference() <= delta) {
                 throw new AssertionError(getFailMessage(message, expected, actual, difference));
             }
         } catch(Exception ex) {
@@ -60,7 +260,15 @@ public class AssertImage {
         }
     }
 
-    private static String getFailMessage(String message, File expected, File actual, Double difference) {
+    private static String getFailMessage(String message, ImageSource expected, ImageSource actual, ChannelDifference difference) {
+        String differenceStr = "N/A";
+        if (difference != null) {
+            // The comparison stopped early: the difference is a lower bound, or an upper bound
+            String format = difference.isExceeded() ? "at least %.2f%%" :
+                    difference.isUpperBound() ? "at most %.2f%%" : "%.2f%%";
+            differenceStr = String.format(format, difference.getDifference() * 100);
+        }
+
         return String.format(
                 "%s%n" +
                 "Expected  : %s%n" +
@@ -69,7 +277,50 @@ public class AssertImage {
                 message == null ? "" : message,
                 expected,
                 actual,
-                difference == null ? "N/A" : String.format("%.2f%%", difference * 100));
+                differenceStr);
+    }
+
+    /**
+     * Save the heatmap of a failed assertion and describe the differences.
+     */
+    private static String getDiffReportMessage(DiffReport diffReport, ImageSource actual) {
+        String heatmapStr = "N/A";
+        if (diffReport.hasDifferences()) {
+            File heatmapFile = getHeatmapFile(actual);
+            try {
+                diffReport.writeHeatmap(heatmapFile);
+                heatmapStr = heatmapFile.toString();
+            } catch(Exception ex) {
+                heatmapStr = String.format("Error occurred while saving %s: %s", heatmapFile, ex.getMessage());
+            }
+        }
+
+        return String.format("%s%nDiff image: %s", diffReport, heatmapStr);
+    }
+
+    /**
+     * The heatmap is saved in the diff output directory if set, or next to the actual file.
+     * The file name is derived from the actual file name, when available.
+     */
+    private static File getHeatmapFile(ImageSource actual) {
+        File actualFile = actual.getFile();
+        File directory = AssertImage.imageComparator.getDiffOutputDirectory();
+        if (directory == null) {
+            directory = actualFile == null ? new File(System.getProperty("java.io.tmpdir")) : actualFile.getAbsoluteFile().getParentFile();
+        }
+
+        String baseName;
+        if (actualFile == null) {
+            baseName = String.format("image_%d", System.nanoTime());
+        } else {
+            baseName = actualFile.getName();
+            int extensionIndex = baseName.lastIndexOf('.');
+            if (extensionIndex > 0) {
+                baseName = baseName.substring(0, extensionIndex);
+            }
+        }
+
+        return new File(directory, baseName + "_diff.png");
     }
 
 
@@ -92,86 +343,164 @@ public class AssertImage {
      * @throws IOException If the image files are null, dimensions are different, not readable or not an image.
      */
     public static double getImageDifference(File expectedImageFile, File actualImageFile) throws IOException {
-        if (expectedImageFile == null) {
-            throw new IOException("Expected image file must not be null.");
-        }
-        if (actualImageFile == null) {
-            throw new IOException("Actual image file must not be null.");
+        return AssertImage.getChannelDifference(ImageSource.of(ImageSource.EXPECTED, expectedImageFile), ImageSource.of(ImageSource.ACTUAL, actualImageFile), Double.POSITIVE_INFINITY).getDifference();
+    }
+
+    /**
+     * @see #getImageDifference(File, File)
+     */
+    public static double getImageDifference(Path expected, Path actual) throws IOException {
+        return AssertImage.getChannelDifference(ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), Double.POSITIVE_INFINITY).getDifference();
+    }
+
+    /**
+     * @see #getImageDifference(File, File)
+     */
+    public static double getImageDifference(byte[] expected, byte[] actual) throws IOException {
+        return AssertImage.getChannelDifference(ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), Double.POSITIVE_INFINITY).getDifference();
+    }
+
+    /**
+     * @see #getImageDifference(File, File)
+     */
+    public static double getImageDifference(InputStream expected, InputStream actual) throws IOException {
+        return AssertImage.getChannelDifference(ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), Double.POSITIVE_INFINITY).getDifference();
+    }
+
+    /**
+     * @see #getImageDifference(File, File)
+     */
+    public static double getImageDifference(BufferedImage expected, BufferedImage actual) throws IOException {
+        return AssertImage.getChannelDifference(ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), Double.POSITIVE_INFINITY).getDifference();
+    }
+
+    /**
+     * @see #getImageDifference(File, File)
+     */
+    public static double getImageDifference(Raster expected, Raster actual) throws IOException {
+        return AssertImage.getChannelDifference(ImageSource.of(ImageSource.EXPECTED, expected), ImageSource.of(ImageSource.ACTUAL, actual), Double.POSITIVE_INFINITY).getDifference();
+    }
+
+    /**
+     * Compare two images, pixel by pixel, until the difference is known to exceed the delta.
+     * @see ImageComparator#getImageDifference(BufferedImage, BufferedImage, double)
+     */
+    private static ChannelDifference getChannelDifference(ImageSource expected, ImageSource actual, double delta) throws IOException {
+        ComparisonListener[] listeners = AssertImage.comparisonListeners;
+        if (listeners.length == 0) {
+            return getChannelDifference(expected, actual, delta, null);
         }
 
-        if (!expectedImageFile.isFile() || !expectedImageFile.canRead()) {
-            throw new IOException(String.format("Expected image file is invalid. %s", expectedImageFile));
+        ComparisonMetrics metrics = new ComparisonMetrics(expected.toString(), actual.toString());
+        long allocatedBytesStart = ComparisonMetrics.AllocationCounter.getAllocatedBytes();
+        long start = System.nanoTime();
+
+        ChannelDifference difference = getChannelDifference(expected, actual, delta, metrics);
+
+        metrics.totalNanos = System.nanoTime() - start;
+        if (allocatedBytesStart >= 0) {
+            metrics.allocatedBytes = ComparisonMetrics.AllocationCounter.getAllocatedBytes() - allocatedBytesStart;
         }
-        if (!actualImageFile.isFile() || !actualImageFile.canRead()) {
-            throw new IOException(String.format("Actual image file is invalid. %s", actualImageFile));
+        metrics.difference = difference.getDifference();
+        for (ComparisonListener listener : listeners) {
+            listener.comparisonCompleted(metrics);
         }
+        return difference;
+    }
 
-        BufferedImage expectedRGBAImage = ImageIO.read(expectedImageFile);
-        if (expectedRGBAImage == null) {
-            throw new IOException(String.format("Expected image file is not an image. %s", expectedImageFile));
+    /**
+     * @param metrics The measures of the comparison, or null if the comparison is not measured.
+     */
+    private static ChannelDifference getChannelDifference(ImageSource expected, ImageSource actual, double delta, ComparisonMetrics metrics) throws IOException {
+        // Same file, or byte-identical files: no need to decode them
+        if (expected.isSameContent(actual)) {
+            return new ChannelDifference();
         }
 
-        BufferedImage actualRGBAImage = ImageIO.read(actualImageFile);
-        if (actualRGBAImage == null) {
-            throw new IOException(String.format("Actual image file is not an image. %s", actualImageFile));
-        }
+        ImageComparator comparator = AssertImage.imageComparator;
+        int stripHeight = comparator.getStripHeight();
 
-        int width = expectedRGBAImage.getWidth(),
-            height = expectedRGBAImage.getHeight();
-        if (actualRGBAImage.getWidth() != width || actualRGBAImage.getHeight() != height) {
-            throw new IOException(String.format(
-                    "Images dimensions are incompatible. " +
-                    "Expected image: [%dpx x %dpx]. " +
-                    "Actual image: [%dpx x %dpx]. " +
-                    "Expected image file: %s. " +
-                    "Actual image file: %s.",
-                    width, height,
-                    actualRGBAImage.getWidth(), actualRGBAImage.getHeight(),
-                    expectedImageFile,
-                    actualImageFile));
+        // The signatures are computed from fully decoded images
+        SignatureStore signatureStore = stripHeight == 0 ? AssertImage.signatureStore : null;
+        File expectedFile = signatureStore == null ? null : expected.getFile();
+        if (expectedFile != null) {
+            ImageSignature expectedSignature = signatureStore.getSignature(expectedFile);
+            if (expectedSignature != null) {
+                return getChannelDifference(expected, actual, expectedSignature, delta, metrics);
+            }
         }
 
-        // Get the image pixels
-        // One int per pixel (values of Red, Green, Blue encoded as an int)
-        int[] expectedRGBArray = expectedRGBAImage.getRGB(0, 0, width, height, null, 0, width);
-        int[] actualRGBArray = actualRGBAImage.getRGB(0, 0, width, height, null, 0, width);
+        // Only the expected images are cached; the actual images are usually generated by the test.
+        long decodeStart = metrics == null ? 0 : System.nanoTime();
+        try (PixelReader expectedPixelReader = expected.getPixelReader(AssertImage.imageCache, stripHeight)) {
+            if (metrics != null) {
+                long decodeEnd = System.nanoTime();
+                metrics.expectedDecodeNanos = decodeEnd - decodeStart;
+                decodeStart = decodeEnd;
+            }
+            try (PixelReader actualPixelReader = actual.getPixelReader(null, stripHeight)) {
+                if (metrics != null) {
+                    metrics.actualDecodeNanos = System.nanoTime() - decodeStart;
+                }
 
-        // Ensure the pixel arrays are of the same dimensions.
-        // NOTE: This is very unlikely to fail since we already checked the images width x height
-        //   and we are requesting pixels using the exact same parameters.
-        if (expectedRGBArray.length != actualRGBArray.length) {
-            throw new IOException(String.format(
-                    "Images dimensions are incompatible. " +
-                    "Expected image: [%d values]. " +
-                    "Actual image: [%d values]. " +
-                    "Expected image file: %s. " +
-                    "Actual image file: %s.",
-                    expectedRGBArray.length,
-                    actualRGBArray.length,
-                    expectedImageFile,
-                    actualImageFile));
-        }
+                checkDimensions(expected, actual, expectedPixelReader.getWidth(), expectedPixelReader.getHeight(), actualPixelReader);
+                if (metrics != null) {
+                    metrics.pixelCount = (long)actualPixelReader.getWidth() * actualPixelReader.getHeight();
+                }
+                ChannelDifference difference = comparator.getChannelDifference(expectedPixelReader, actualPixelReader, delta, metrics);
 
+                if (expectedFile != null) {
+                    signatureStore.putSignature(expectedFile, expectedPixelReader);
+                }
+                return difference;
+            }
+        }
+    }
 
-        long redDiff = 0, greenDiff = 0, blueDiff = 0;
+    /**
+     * Compare an image with the signature of the expected image.
+     * The expected image is only decoded if the signature is not enough to compare the images.
+     */
+    private static ChannelDifference getChannelDifference(ImageSource expected, ImageSource actual, ImageSignature expectedSignature, double delta, ComparisonMetrics metrics) throws IOException {
+        ImageComparator comparator = AssertImage.imageComparator;
 
-        // NOTE: These objects will be re-used a lot, better declare them outside the loop
-        //   to same precious garbage collection time.
-        Color expectedColour, actualColour;
+        long decodeStart = metrics == null ? 0 : System.nanoTime();
+        try (PixelReader actualPixelReader = actual.getPixelReader(null, 0)) {
+            if (metrics != null) {
+                metrics.actualDecodeNanos = System.nanoTime() - decodeStart;
+            }
 
-        for (int i=0; i<expectedRGBArray.length; i++) {
-            // Decode the int as actual RGB values.
-            expectedColour = new Color(expectedRGBArray[i]);
-            actualColour = new Color(actualRGBArray[i]);
+            checkDimensions(expected, actual, expectedSignature.getWidth(), expectedSignature.getHeight(), actualPixelReader);
+            if (metrics != null) {
+                metrics.pixelCount = (long)actualPixelReader.getWidth() * actualPixelReader.getHeight();
+            }
+            ChannelDifference difference = comparator.getSignatureDifference(expectedSignature, actualPixelReader, delta);
+            if (difference != null) {
+                return difference;
+            }
 
-            // Diff domain: [-255, 255]
-            // After Math.abs: [0, 255]
-            redDiff += Math.abs(expectedColour.getRed() - actualColour.getRed());
-            greenDiff += Math.abs(expectedColour.getGreen() - actualColour.getGreen());
-            blueDiff += Math.abs(expectedColour.getBlue() - actualColour.getBlue());
+            decodeStart = metrics == null ? 0 : System.nanoTime();
+            try (PixelReader expectedPixelReader = expected.getPixelReader(AssertImage.imageCache, 0)) {
+                if (metrics != null) {
+                    metrics.expectedDecodeNanos = System.nanoTime() - decodeStart;
+                }
+                return comparator.getChannelDifference(expectedPixelReader, actualPixelReader, delta, metrics);
+            }
         }
+    }
 
-        // Each pixels contains 3 colours (Red, Green, Blue), each with 256 possible values [0, 255]
-        return (redDiff + greenDiff + blueDiff) / 3.0 / expectedRGBArray.length / 255.0;
+    private static void checkDimensions(ImageSource expected, ImageSource actual, int width, int height, PixelReader actualPixelReader) throws IOException {
+        if (actualPixelReader.getWidth() != width || actualPixelReader.getHeight() != height) {
+            throw new IOException(String.format(
+                    "Images dimensions are incompatible. " +
+                    "Expected image: [%dpx x %dpx]. " +
+                    "Actual image: [%dpx x %dpx]. " +
+                    "Expected image %s: %s. " +
+                    "Actual image %s: %s.",
+                    width, height,
+                    actualPixelReader.getWidth(), actualPixelReader.getHeight(),
+                    expected.getKind(), expected,
+                    actual.getKind(), actual));
+        }
     }
 }
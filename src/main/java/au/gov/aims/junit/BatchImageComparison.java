@@ -0,0 +1,383 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compare many pairs of image files at once, and report the result of every pair.
+ *
+ * <p>The images are compared in a pipeline: the files are decoded on the decode executor
+ * (I/O bound) while the images already decoded are compared on the compare executor (CPU bound).
+ * The number of pairs in the pipeline is bounded, so only a few decoded images
+ * are held in memory at any time.</p>
+ *
+ * <p>By default, the files are decoded on virtual threads when running on Java 21 or later,
+ * or on a pool of platform threads otherwise, and the images are compared on
+ * the {@link ForkJoinPool#commonPool()}.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * BatchReport report = new BatchImageComparison()
+ *         .setDelta(0.01)
+ *         .compareDirectories(expectedTilesDirectory, actualTilesDirectory);
+ * report.assertSuccess();
+ * </pre>
+ */
+public class BatchImageComparison {
+    /**
+     * Default maximum number of pairs being decoded or compared at once.
+     */
+    public static final int DEFAULT_MAXIMUM_PENDING_PAIRS = 2 * Runtime.getRuntime().availableProcessors();
+
+    private ImageComparator imageComparator = AssertImage.getImageComparator();
+    private ImageCache imageCache = AssertImage.getImageCache();
+    private Executor decodeExecutor = null;
+    private Executor compareExecutor = null;
+    private int maximumPendingPairs = DEFAULT_MAXIMUM_PENDING_PAIRS;
+    private double delta = 0;
+
+    public ImageComparator getImageComparator() {
+        return this.imageComparator;
+    }
+
+    /**
+     * @param imageComparator The comparator used to compare the images.
+     *     Default: the {@link AssertImage#getImageComparator() AssertImage comparator}.
+     * @return This batch, for chaining.
+     */
+    public BatchImageComparison setImageComparator(ImageComparator imageComparator) {
+        if (imageComparator == null) {
+            throw new IllegalArgumentException("Image comparator must not be null.");
+        }
+        this.imageComparator = imageComparator;
+        return this;
+    }
+
+    public ImageCache getImageCache() {
+        return this.imageCache;
+    }
+
+    /**
+     * @param imageCache The cache of the expected images, or null to disable caching.
+     *     Default: the {@link AssertImage#getImageCache() AssertImage cache}.
+     * @return This batch, for chaining.
+     */
+    public BatchImageComparison setImageCache(ImageCache imageCache) {
+        this.imageCache = imageCache;
+        return this;
+    }
+
+    public Executor getDecodeExecutor() {
+        return this.decodeExecutor;
+    }
+
+    /**
+     * @param decodeExecutor The executor used to read and decode the image files,
+     *     or null to use virtual threads (Java 21+) or a pool of platform threads.
+     * @return This batch, for chaining.
+     */
+    public BatchImageComparison setDecodeExecutor(Executor decodeExecutor) {
+        this.decodeExecutor = decodeExecutor;
+        return this;
+    }
+
+    public Executor getCompareExecutor() {
+        return this.compareExecutor == null ? ForkJoinPool.commonPool() : this.compareExecutor;
+    }
+
+    /**
+     * @param compareExecutor The executor used to compare the decoded images,
+     *     or null to use the {@link ForkJoinPool#commonPool()}.
+     * @return This batch, for chaining.
+     */
+    public BatchImageComparison setCompareExecutor(Executor compareExecutor) {
+        this.compareExecutor = compareExecutor;
+        return this;
+    }
+
+    public int getMaximumPendingPairs() {
+        return this.maximumPendingPairs;
+    }
+
+    /**
+     * @param maximumPendingPairs Maximum number of pairs being decoded or compared at once.
+     *     Each pending pair holds its two decoded images in memory.
+     * @return This batch, for chaining.
+     */
+    public BatchImageComparison setMaximumPendingPairs(int maximumPendingPairs) {
+        if (maximumPendingPairs <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid maximum pending pairs: %d", maximumPendingPairs));
+        }
+        this.maximumPendingPairs = maximumPendingPairs;
+        return this;
+    }
+
+    public double getDelta() {
+        return this.delta;
+    }
+
+    /**
+     * @param delta The maximum difference allowed for a pair to pass; value between [0,1].
+     * @return This batch, for chaining.
+     */
+    public BatchImageComparison setDelta(double delta) {
+        this.delta = delta;
+        return this;
+    }
+
+    /**
+     * Compare every file of the expected directory, and its sub directories,
+     * with the file at the same relative path in the actual directory.
+     * Actual files without an expected file are ignored.
+     * @param expectedDirectory The directory of the reference images.
+     * @param actualDirectory The directory of the generated images.
+     * @return The report of the comparison of every pair, sorted by relative path.
+     * @throws IOException If a directory can't be read, or if the comparison is interrupted.
+     */
+    public BatchReport compareDirectories(File expectedDirectory, File actualDirectory) throws IOException {
+        if (expectedDirectory == null || !expectedDirectory.isDirectory()) {
+            throw new IOException(String.format("Expected image directory is invalid. %s", expectedDirectory));
+        }
+        if (actualDirectory == null || !actualDirectory.isDirectory()) {
+            throw new IOException(String.format("Actual image directory is invalid. %s", actualDirectory));
+        }
+
+        Path expectedPath = expectedDirectory.toPath();
+        Path actualPath = actualDirectory.toPath();
+        List<Path> expectedFiles;
+        try (Stream<Path> files = Files.walk(expectedPath)) {
+            expectedFiles = files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        Map<File, File> pairs = new LinkedHashMap<File, File>();
+        for (Path expectedFile : expectedFiles) {
+            // Resolve as a string, in case the directories are on different file systems
+            pairs.put(expectedFile.toFile(), actualPath.resolve(expectedPath.relativize(expectedFile).toString()).toFile());
+        }
+        return this.compare(pairs);
+    }
+
+    /**
+     * Compare pairs of image files.
+     * @param pairs The expected image files, associated with the actual image files.
+     * @return The report of the comparison of every pair, in the iteration order of the map.
+     * @throws IOException If the comparison is interrupted.
+     */
+    public BatchReport compare(Map<File, File> pairs) throws IOException {
+        Executor decodeExecutor = this.decodeExecutor;
+        ExecutorService ownDecodeExecutor = null;
+        if (decodeExecutor == null) {
+            ownDecodeExecutor = createDecodeExecutor(this.maximumPendingPairs);
+            decodeExecutor = ownDecodeExecutor;
+        }
+
+        try {
+            Semaphore pendingPairs = new Semaphore(this.maximumPendingPairs);
+            List<CompletableFuture<BatchReport.Entry>> futures = new ArrayList<CompletableFuture<BatchReport.Entry>>(pairs.size());
+            for (Map.Entry<File, File> pair : pairs.entrySet()) {
+                // Wait for a pair to leave the pipeline before decoding a new one
+                pendingPairs.acquire();
+                futures.add(this.submit(pair.getKey(), pair.getValue(), decodeExecutor, pendingPairs));
+            }
+
+            List<BatchReport.Entry> entries = new ArrayList<BatchReport.Entry>(futures.size());
+            for (CompletableFuture<BatchReport.Entry> future : futures) {
+                // Never completes exceptionally, errors are reported in the entries
+                entries.add(future.join());
+            }
+            return new BatchReport(this.delta, entries);
+
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interruptedException = new InterruptedIOException("Batch comparison interrupted.");
+            interruptedException.initCause(ex);
+            throw interruptedException;
+        } finally {
+            if (ownDecodeExecutor != null) {
+                ownDecodeExecutor.shutdown();
+            }
+        }
+    }
+
+    private CompletableFuture<BatchReport.Entry> submit(File expectedFile, File actualFile, Executor decodeExecutor, Semaphore pendingPairs) {
+        ImageSource expected = ImageSource.of(ImageSource.EXPECTED, expectedFile);
+        ImageSource actual = ImageSource.of(ImageSource.ACTUAL, actualFile);
+
+        Executor compareExecutor = this.getCompareExecutor();
+        CompletableFuture<BatchReport.Entry> future;
+        try {
+            future = CompletableFuture
+                    .supplyAsync(() -> this.decode(expected, actual), decodeExecutor)
+                    .thenCompose(decodedPair -> this.submitCompare(expectedFile, actualFile, decodedPair, compareExecutor));
+        } catch(RuntimeException ex) {
+            // Decode task rejected by the executor
+            future = new CompletableFuture<BatchReport.Entry>();
+            future.completeExceptionally(ex);
+        }
+
+        return future
+                .handle((entry, ex) -> entry != null ? entry : new BatchReport.Entry(
+                        expectedFile, actualFile, BatchReport.Status.ERROR, Double.NaN, false, false, unwrap(ex)))
+                .whenComplete((entry, ex) -> pendingPairs.release());
+    }
+
+    /**
+     * Submit the comparison of a decoded pair to the compare executor.
+     * If the executor rejects the task, the readers are closed and the returned future
+     * completes exceptionally, so the pair still leaves the pipeline.
+     */
+    private CompletableFuture<BatchReport.Entry> submitCompare(File expectedFile, File actualFile, DecodedPair decodedPair, Executor compareExecutor) {
+        try {
+            return CompletableFuture.supplyAsync(() -> this.compare(expectedFile, actualFile, decodedPair), compareExecutor);
+        } catch(RuntimeException ex) {
+            try {
+                decodedPair.close();
+            } catch(IOException closeException) {
+                ex.addSuppressed(closeException);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Decode both images of a pair. Runs on the decode executor.
+     * @return The decoded pair, or a pair without readers if the files are identical.
+     */
+    private DecodedPair decode(ImageSource expected, ImageSource actual) {
+        try {
+            // Same file, or byte-identical files: no need to decode them
+            if (expected.isSameContent(actual)) {
+                return new DecodedPair(null, null);
+            }
+
+            int stripHeight = this.imageComparator.getStripHeight();
+            PixelReader expectedPixelReader = expected.getPixelReader(this.imageCache, stripHeight);
+            try {
+                return new DecodedPair(expectedPixelReader, actual.getPixelReader(null, stripHeight));
+            } catch(IOException | RuntimeException ex) {
+                expectedPixelReader.close();
+                throw ex;
+            }
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Compare a decoded pair. Runs on the compare executor.
+     */
+    private BatchReport.Entry compare(File expectedFile, File actualFile, DecodedPair decodedPair) {
+        if (decodedPair.expectedPixelReader == null) {
+            return new BatchReport.Entry(expectedFile, actualFile, BatchReport.Status.PASSED, 0, false, false, null);
+        }
+
+        try (
+                PixelReader expectedPixelReader = decodedPair.expectedPixelReader;
+                PixelReader actualPixelReader = decodedPair.actualPixelReader
+        ) {
+            // Stop comparing as soon as the images are known to be too different
+            ChannelDifference difference = this.imageComparator.getChannelDifference(expectedPixelReader, actualPixelReader, this.delta);
+            double differenceValue = difference.getDifference();
+            boolean passed = !difference.isExceeded() && differenceValue <= this.delta;
+            return new BatchReport.Entry(expectedFile, actualFile,
+                    passed ? BatchReport.Status.PASSED : BatchReport.Status.FAILED,
+                    differenceValue, difference.isExceeded(), difference.isUpperBound(), null);
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static Exception unwrap(Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        if (throwable instanceof UncheckedIOException) {
+            return ((UncheckedIOException)throwable).getCause();
+        }
+        if (throwable instanceof Exception) {
+            return (Exception)throwable;
+        }
+        // Errors (such as OutOfMemoryError) are reported as the cause of the entry error
+        return new Exception(throwable.getMessage(), throwable);
+    }
+
+    /**
+     * Create an executor which starts a virtual thread per task when running on Java 21 or later.
+     * The method is called by reflection, so the library still runs on Java 8.
+     * Older Java versions use a pool of daemon threads; the pipeline never
+     * submits more decode tasks than there are pending pairs.
+     */
+    static ExecutorService createDecodeExecutor(int threadCount) {
+        try {
+            Method newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)newVirtualThreadPerTaskExecutor.invoke(null);
+        } catch(ReflectiveOperationException ex) {
+            // Java < 21, or virtual threads are a disabled preview feature (Java 19 and 20)
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, String.format("junit-image-decode-%d", threadNumber.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static class DecodedPair implements Closeable {
+        private final PixelReader expectedPixelReader;
+        private final PixelReader actualPixelReader;
+
+        public DecodedPair(PixelReader expectedPixelReader, PixelReader actualPixelReader) {
+            this.expectedPixelReader = expectedPixelReader;
+            this.actualPixelReader = actualPixelReader;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (
+                    PixelReader expectedPixelReader = this.expectedPixelReader;
+                    PixelReader actualPixelReader = this.actualPixelReader
+            ) {
+                // Closed by the try-with-resources, null readers are ignored
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a {@link BatchImageComparison}: the difference and status of every pair of images,
+ * in the order the pairs were given.
+ */
+public class BatchReport {
+    public enum Status {
+        /** The difference is within the delta. */
+        PASSED,
+        /** The difference exceeds the delta. */
+        FAILED,
+        /** The images could not be compared (missing file, not an image, different dimensions, etc). */
+        ERROR
+    }
+
+    private final double delta;
+    private final List<Entry> entries;
+
+    BatchReport(double delta, List<Entry> entries) {
+        this.delta = delta;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    public double getDelta() {
+        return this.delta;
+    }
+
+    public List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    public int getCount(Status status) {
+        int count = 0;
+        for (Entry entry : this.entries) {
+            if (entry.getStatus() == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return True if every pair of images passed.
+     */
+    public boolean isSuccess() {
+        return this.getCount(Status.PASSED) == this.entries.size();
+    }
+
+    /**
+     * Fail with the whole report if a pair of images did not pass.
+     * @throws AssertionError If a pair of images failed, or could not be compared.
+     */
+    public void assertSuccess() {
+        if (!this.isSuccess()) {
+            throw new AssertionError(this.toString());
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder entriesStr = new StringBuilder();
+        for (Entry entry : this.entries) {
+            entriesStr.append(String.format("%n%s", entry));
+        }
+
+        return String.format(
+                "Compared %d pairs of images, with a delta of %.2f%%. Passed: %d, Failed: %d, Error: %d%s",
+                this.entries.size(), this.delta * 100,
+                this.getCount(Status.PASSED), this.getCount(Status.FAILED), this.getCount(Status.ERROR),
+                entriesStr);
+    }
+
+
+    /**
+     * Result of the comparison of one pair of images.
+     */
+    public static class Entry {
+        private final File expectedFile;
+        private final File actualFile;
+        private final Status status;
+        private final double difference;
+        private final boolean exceeded;
+        private final boolean upperBound;
+        private final Exception error;
+
+        Entry(File expectedFile, File actualFile, Status status, double difference, boolean exceeded, boolean upperBound, Exception error) {
+            this.expectedFile = expectedFile;
+            this.actualFile = actualFile;
+            this.status = status;
+            this.difference = difference;
+            this.exceeded = exceeded;
+            this.upperBound = upperBound;
+            this.error = error;
+        }
+
+        public File getExpectedFile() {
+            return this.expectedFile;
+        }
+
+        public File getActualFile() {
+            return this.actualFile;
+        }
+
+        public Status getStatus() {
+            return this.status;
+        }
+
+        /**
+         * @return The difference between the images; value between [0,1].
+         *     NaN if the images could not be compared.
+         * @see #isExceeded()
+         * @see #isUpperBound()
+         */
+        public double getDifference() {
+            return this.difference;
+        }
+
+        /**
+         * @return True if the comparison stopped as soon as the difference exceeded the delta.
+         *     The difference is then a lower bound of the actual difference.
+         */
+        public boolean isExceeded() {
+            return this.exceeded;
+        }
+
+        /**
+         * @return True if the comparison stopped as soon as the difference was known to be within the delta
+         *     (pyramid pre-check). The difference is then an upper bound of the actual difference.
+         */
+        public boolean isUpperBound() {
+            return this.upperBound;
+        }
+
+        /**
+         * @return The error which prevented the comparison, or null.
+         */
+        public Exception getError() {
+            return this.error;
+        }
+
+        @Override
+        public String toString() {
+            String differenceStr;
+            if (this.status == Status.ERROR) {
+                differenceStr = String.valueOf(this.error == null ? null : this.error.getMessage());
+            } else {
+                String format = this.exceeded ? "at least %.2f%%" :
+                        this.upperBound ? "at most %.2f%%" : "%.2f%%";
+                differenceStr = String.format(format, this.difference * 100);
+            }
+            return String.format("%-6s %s -> %s: %s", this.status, this.expectedFile, this.actualFile, differenceStr);
+        }
+    }
+}
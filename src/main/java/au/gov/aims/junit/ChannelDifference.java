@@ -0,0 +1,93 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+/**
+ * Sum of the absolute differences of each colour channel,
+ * accumulated over a range of pixels.
+ * The sums are exact integers, so they can be computed in any order
+ * (or in parallel) and still give the exact same result.
+ */
+class ChannelDifference {
+    protected long redDiff = 0;
+    protected long greenDiff = 0;
+    protected long blueDiff = 0;
+    protected long pixelCount = 0;
+
+    // True if the comparison stopped before the end of the image
+    // because the difference was already known to exceed the delta.
+    // The sums are then a lower bound of the actual difference.
+    protected boolean exceeded = false;
+
+    // True if the comparison stopped before the end of the image
+    // because the difference was already known to be within the delta.
+    // The sums are then an upper bound of the actual difference.
+    protected boolean upperBound = false;
+
+    // Details of the differences, if requested
+    protected DiffReport diffReport = null;
+
+    public void add(ChannelDifference other) {
+        this.redDiff += other.redDiff;
+        this.greenDiff += other.greenDiff;
+        this.blueDiff += other.blueDiff;
+        this.pixelCount += other.pixelCount;
+        this.exceeded |= other.exceeded;
+    }
+
+    public DiffReport getDiffReport() {
+        return this.diffReport;
+    }
+
+    public boolean isExceeded() {
+        return this.exceeded;
+    }
+
+    public boolean isUpperBound() {
+        return this.upperBound;
+    }
+
+    public long getSum() {
+        return this.redDiff + this.greenDiff + this.blueDiff;
+    }
+
+    /**
+     * @return The difference, in percent; value between [0,1].
+     *     If the comparison stopped early ({@link #isExceeded()}), the value is a lower bound of the difference.
+     *     If the comparison was decided from bounds ({@link #isUpperBound()}), the value is an upper bound of the difference.
+     */
+    public double getDifference() {
+        long sum = this.getSum();
+        // Identical images may be detected without counting their pixels
+        return sum == 0 ? 0.0 : getDifference(sum, this.pixelCount);
+    }
+
+    /**
+     * Convert a sum of channel differences into a difference percentage.
+     * NOTE: This function is monotonic. It's used to compare partial sums
+     *   against the delta of an assertion without introducing rounding errors.
+     * @param sum The sum of the Red, Green and Blue absolute differences.
+     * @param pixelCount The number of pixels in the image.
+     * @return The difference, in percent; value between [0,1].
+     */
+    public static double getDifference(long sum, long pixelCount) {
+        // Each pixels contains 3 colours (Red, Green, Blue), each with 256 possible values [0, 255]
+        return sum / 3.0 / pixelCount / 255.0;
+    }
+}
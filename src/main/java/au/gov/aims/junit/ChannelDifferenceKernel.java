@@ -0,0 +1,109 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+/**
+ * Sum of the absolute channel differences of a row of packed ARGB pixels.
+ * This is the inner loop of the comparison.
+ *
+ * <p>The {@link #SCALAR} kernel works with every JVM. When the library is used
+ * with Java 17 or later and the Vector API module is enabled
+ * ({@code --add-modules jdk.incubator.vector}), the Vector API kernel is used instead.
+ * It's compiled separately (src/main/java17) and packaged in the multi-release JAR,
+ * so it's loaded using reflection. Both kernels return the exact same sums.</p>
+ */
+abstract class ChannelDifferenceKernel {
+    /**
+     * System property used to disable the Vector API kernel: {@code -Dau.gov.aims.junit.vectorApi=false}
+     */
+    static final String VECTOR_API_PROPERTY = "au.gov.aims.junit.vectorApi";
+
+    private static final String VECTOR_KERNEL_CLASS = "au.gov.aims.junit.VectorChannelDifferenceKernel";
+
+    static final ChannelDifferenceKernel SCALAR = new ScalarChannelDifferenceKernel();
+
+    // Null if the Vector API is not available
+    private static final ChannelDifferenceKernel VECTOR = loadVectorKernel();
+
+    /**
+     * @return The Vector API kernel if available, the scalar kernel otherwise.
+     */
+    static ChannelDifferenceKernel getInstance() {
+        return VECTOR == null ? SCALAR : VECTOR;
+    }
+
+    static boolean isVectorApiAvailable() {
+        return VECTOR != null;
+    }
+
+    /**
+     * Add the absolute differences of the Red, Green and Blue values of the pixels [0, width[ of the rows.
+     * The Alpha values are ignored.
+     * @param expectedRow The expected pixels, packed as ARGB.
+     * @param actualRow The actual pixels, packed as ARGB.
+     * @param width The number of pixels to compare.
+     * @param channelSums The sums of the Red, Green and Blue differences, updated by the kernel.
+     */
+    abstract void addDifferences(int[] expectedRow, int[] actualRow, int width, long[] channelSums);
+
+    /**
+     * @return A name used to describe the kernel.
+     */
+    abstract String getName();
+
+    private static ChannelDifferenceKernel loadVectorKernel() {
+        if ("false".equalsIgnoreCase(System.getProperty(VECTOR_API_PROPERTY))) {
+            return null;
+        }
+        try {
+            return (ChannelDifferenceKernel)Class.forName(VECTOR_KERNEL_CLASS)
+                    .getDeclaredConstructor().newInstance();
+        } catch(ReflectiveOperationException | LinkageError ex) {
+            // Java 8 to 16 (the class is not in the JAR, or can't be loaded),
+            // or the jdk.incubator.vector module is not enabled.
+            return null;
+        }
+    }
+
+    private static class ScalarChannelDifferenceKernel extends ChannelDifferenceKernel {
+        @Override
+        void addDifferences(int[] expectedRow, int[] actualRow, int width, long[] channelSums) {
+            long redDiff = 0, greenDiff = 0, blueDiff = 0;
+            for (int x=0; x<width; x++) {
+                int expectedRGB = expectedRow[x];
+                int actualRGB = actualRow[x];
+
+                // Decode the int as actual RGB values.
+                // Diff domain: [-255, 255]
+                // After Math.abs: [0, 255]
+                redDiff += Math.abs(((expectedRGB >> 16) & 0xFF) - ((actualRGB >> 16) & 0xFF));
+                greenDiff += Math.abs(((expectedRGB >> 8) & 0xFF) - ((actualRGB >> 8) & 0xFF));
+                blueDiff += Math.abs((expectedRGB & 0xFF) - (actualRGB & 0xFF));
+            }
+            channelSums[0] += redDiff;
+            channelSums[1] += greenDiff;
+            channelSums[2] += blueDiff;
+        }
+
+        @Override
+        String getName() {
+            return "Scalar";
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+/**
+ * Notified after every image comparison done by {@link AssertImage},
+ * with the time spent in each step of the comparison.
+ *
+ * <p>The comparisons are only measured while at least one listener is registered
+ * with {@link AssertImage#addComparisonListener(ComparisonListener)}.</p>
+ *
+ * <p>Listeners are called on the thread which made the assertion.
+ * They must be thread safe if the tests run in parallel.</p>
+ *
+ * @see ComparisonStatistics for a listener which aggregates the metrics of a test suite.
+ */
+public interface ComparisonListener {
+
+    /**
+     * @param metrics The measures of a comparison which completed without error.
+     */
+    void comparisonCompleted(ComparisonMetrics metrics);
+}
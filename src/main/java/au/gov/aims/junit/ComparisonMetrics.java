@@ -0,0 +1,177 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures of one image comparison, given to the {@link ComparisonListener}.
+ *
+ * <p>The pixel extraction is the time spent reading the pixels of the decoded images
+ * (or decoding the strips of streamed images). The comparison time excludes it.
+ * In parallel mode, both are summed over all the threads of the comparison,
+ * so they may exceed the total time.</p>
+ */
+public class ComparisonMetrics {
+    private final String expectedSource;
+    private final String actualSource;
+
+    long expectedDecodeNanos = 0;
+    long actualDecodeNanos = 0;
+    private long pixelExtractionNanos = 0;
+    private long compareNanos = 0;
+    long totalNanos = 0;
+    long pixelCount = 0;
+    long allocatedBytes = -1;
+    double difference = Double.NaN;
+
+    ComparisonMetrics(String expectedSource, String actualSource) {
+        this.expectedSource = expectedSource;
+        this.actualSource = actualSource;
+    }
+
+    /**
+     * @return A description of the expected image (file path, etc).
+     */
+    public String getExpectedSource() {
+        return this.expectedSource;
+    }
+
+    /**
+     * @return A description of the actual image (file path, etc).
+     */
+    public String getActualSource() {
+        return this.actualSource;
+    }
+
+    /**
+     * @return The time spent reading and decoding the expected image, in nanoseconds.
+     *     Close to 0 when the image is already decoded, or found in the {@link ImageCache}.
+     */
+    public long getExpectedDecodeNanos() {
+        return this.expectedDecodeNanos;
+    }
+
+    /**
+     * @return The time spent reading and decoding the actual image, in nanoseconds.
+     */
+    public long getActualDecodeNanos() {
+        return this.actualDecodeNanos;
+    }
+
+    /**
+     * @return The time spent extracting the pixels of the decoded images, in nanoseconds.
+     */
+    public synchronized long getPixelExtractionNanos() {
+        return this.pixelExtractionNanos;
+    }
+
+    /**
+     * @return The time spent comparing the pixels, in nanoseconds.
+     */
+    public synchronized long getCompareNanos() {
+        return this.compareNanos;
+    }
+
+    /**
+     * @return The time spent in the whole comparison, in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return this.totalNanos;
+    }
+
+    /**
+     * @return The number of pixels of the images.
+     *     0 when the images were found identical without being decoded.
+     */
+    public long getPixelCount() {
+        return this.pixelCount;
+    }
+
+    /**
+     * @return The number of bytes allocated by the comparison, or -1 if the JVM can't measure it.
+     *     NOTE: Only the allocations of the calling thread are counted:
+     *       the allocations of the parallel comparison threads are not included.
+     */
+    public long getAllocatedBytes() {
+        return this.allocatedBytes;
+    }
+
+    /**
+     * @return The difference found by the comparison; value between [0,1].
+     */
+    public double getDifference() {
+        return this.difference;
+    }
+
+    /**
+     * Add the times measured by a band of rows.
+     */
+    synchronized void addBandNanos(long pixelExtractionNanos, long compareNanos) {
+        this.pixelExtractionNanos += pixelExtractionNanos;
+        this.compareNanos += compareNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "Expected: %s, Actual: %s, Expected decode: %.3fms, Actual decode: %.3fms, " +
+                "Pixel extraction: %.3fms, Compare: %.3fms, Total: %.3fms, Pixels: %d, Allocated: %d bytes",
+                this.expectedSource, this.actualSource,
+                this.expectedDecodeNanos / 1E6, this.actualDecodeNanos / 1E6,
+                this.getPixelExtractionNanos() / 1E6, this.getCompareNanos() / 1E6, this.totalNanos / 1E6,
+                this.pixelCount, this.allocatedBytes);
+    }
+
+
+    /**
+     * Number of bytes allocated by the current thread,
+     * using the HotSpot extension of the {@link ThreadMXBean} when available.
+     */
+    static final class AllocationCounter {
+        // Declared with the standard type, so this class loads on JVMs without the HotSpot extension
+        private static final ThreadMXBean THREAD_MX_BEAN = getThreadMXBean();
+
+        private AllocationCounter() {}
+
+        private static ThreadMXBean getThreadMXBean() {
+            try {
+                ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+                if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+                    com.sun.management.ThreadMXBean hotSpotThreadMXBean = (com.sun.management.ThreadMXBean)threadMXBean;
+                    if (hotSpotThreadMXBean.isThreadAllocatedMemorySupported() && hotSpotThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+                        return hotSpotThreadMXBean;
+                    }
+                }
+            } catch(Throwable ex) {
+                // Not a HotSpot JVM, or the management module is not available
+            }
+            return null;
+        }
+
+        /**
+         * @return The number of bytes allocated by the current thread since it started, or -1 if not available.
+         */
+        public static long getAllocatedBytes() {
+            return THREAD_MX_BEAN == null ? -1 :
+                    ((com.sun.management.ThreadMXBean)THREAD_MX_BEAN).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+
+/**
+ * Listener which aggregates the metrics of all the comparisons of a test suite.
+ *
+ * <p>Example, to find out where the time of a slow test suite goes:</p>
+ * <pre>
+ * ComparisonStatistics statistics = new ComparisonStatistics();
+ * AssertImage.addComparisonListener(statistics);
+ * statistics.writeJsonAtShutdown(new File("target/junit-image-statistics.json"));
+ * </pre>
+ *
+ * <p>The same can be done without changing the tests, by setting the system property
+ * {@value AssertImage#STATISTICS_FILE_PROPERTY} to the path of the JSON file.</p>
+ */
+public class ComparisonStatistics implements ComparisonListener {
+    private long comparisonCount = 0;
+    private long expectedDecodeNanos = 0;
+    private long actualDecodeNanos = 0;
+    private long pixelExtractionNanos = 0;
+    private long compareNanos = 0;
+    private long totalNanos = 0;
+    private long maxTotalNanos = 0;
+    private long pixelCount = 0;
+    // -1 until a comparison measures its allocations
+    private long allocatedBytes = -1;
+
+    @Override
+    public synchronized void comparisonCompleted(ComparisonMetrics metrics) {
+        this.comparisonCount++;
+        this.expectedDecodeNanos += metrics.getExpectedDecodeNanos();
+        this.actualDecodeNanos += metrics.getActualDecodeNanos();
+        this.pixelExtractionNanos += metrics.getPixelExtractionNanos();
+        this.compareNanos += metrics.getCompareNanos();
+        this.totalNanos += metrics.getTotalNanos();
+        this.maxTotalNanos = Math.max(this.maxTotalNanos, metrics.getTotalNanos());
+        this.pixelCount += metrics.getPixelCount();
+        if (metrics.getAllocatedBytes() >= 0) {
+            this.allocatedBytes = Math.max(0, this.allocatedBytes) + metrics.getAllocatedBytes();
+        }
+    }
+
+    public synchronized long getComparisonCount() {
+        return this.comparisonCount;
+    }
+
+    public synchronized long getExpectedDecodeNanos() {
+        return this.expectedDecodeNanos;
+    }
+
+    public synchronized long getActualDecodeNanos() {
+        return this.actualDecodeNanos;
+    }
+
+    public synchronized long getPixelExtractionNanos() {
+        return this.pixelExtractionNanos;
+    }
+
+    public synchronized long getCompareNanos() {
+        return this.compareNanos;
+    }
+
+    public synchronized long getTotalNanos() {
+        return this.totalNanos;
+    }
+
+    public synchronized long getMaxTotalNanos() {
+        return this.maxTotalNanos;
+    }
+
+    public synchronized long getPixelCount() {
+        return this.pixelCount;
+    }
+
+    /**
+     * @return The number of bytes allocated by the comparisons, or -1 if the JVM can't measure it.
+     */
+    public synchronized long getAllocatedBytes() {
+        return this.allocatedBytes;
+    }
+
+    public synchronized void clear() {
+        this.comparisonCount = 0;
+        this.expectedDecodeNanos = 0;
+        this.actualDecodeNanos = 0;
+        this.pixelExtractionNanos = 0;
+        this.compareNanos = 0;
+        this.totalNanos = 0;
+        this.maxTotalNanos = 0;
+        this.pixelCount = 0;
+        this.allocatedBytes = -1;
+    }
+
+    /**
+     * @return The statistics as a JSON object. Times are in milliseconds.
+     */
+    public synchronized String toJson() {
+        return String.format(Locale.ENGLISH,
+                "{%n" +
+                "  \"comparisonCount\": %d,%n" +
+                "  \"expectedDecodeMillis\": %.3f,%n" +
+                "  \"actualDecodeMillis\": %.3f,%n" +
+                "  \"pixelExtractionMillis\": %.3f,%n" +
+                "  \"compareMillis\": %.3f,%n" +
+                "  \"totalMillis\": %.3f,%n" +
+                "  \"maxTotalMillis\": %.3f,%n" +
+                "  \"pixelCount\": %d,%n" +
+                "  \"allocatedBytes\": %d%n" +
+                "}%n",
+                this.comparisonCount,
+                this.expectedDecodeNanos / 1E6,
+                this.actualDecodeNanos / 1E6,
+                this.pixelExtractionNanos / 1E6,
+                this.compareNanos / 1E6,
+                this.totalNanos / 1E6,
+                this.maxTotalNanos / 1E6,
+                this.pixelCount,
+                this.allocatedBytes);
+    }
+
+    /**
+     * @param file The JSON file to create, or to overwrite.
+     * @throws IOException If the file can't be written.
+     */
+    public void writeJson(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Can not create the directory %s", directory));
+        }
+        Files.write(file.toPath(), this.toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write the statistics as a JSON file when the JVM shuts down (at the end of the test suite).
+     * @param file The JSON file to create, or to overwrite.
+     */
+    public void writeJsonAtShutdown(File file) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                this.writeJson(file);
+            } catch(IOException ex) {
+                System.err.println(String.format("Error occurred while writing the image comparison statistics: %s", ex.getMessage()));
+            }
+        }, "junit-image-statistics"));
+    }
+
+    @Override
+    public String toString() {
+        return this.toJson();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Digests used to detect identical images without comparing their pixels.
+ */
+final class ContentDigest {
+    private static final String ALGORITHM = "SHA-256";
+
+    // Files bigger than this are memory-mapped instead of streamed
+    private static final long MAPPED_FILE_THRESHOLD = 8L * 1024 * 1024;
+    // Size of the memory-mapped regions. Files can be bigger than what a single mapping allows (2GB).
+    private static final long MAPPED_REGION_SIZE = 64L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ContentDigest() {}
+
+    /**
+     * @param file The file to digest.
+     * @return The digest of the file bytes.
+     * @throws IOException If the file can't be read.
+     */
+    public static byte[] digest(File file) throws IOException {
+        MessageDigest messageDigest = newMessageDigest();
+        long length = file.length();
+
+        if (length > MAPPED_FILE_THRESHOLD) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                for (long position=0; position<length; position += MAPPED_REGION_SIZE) {
+                    MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY,
+                            position, Math.min(MAPPED_REGION_SIZE, length - position));
+                    messageDigest.update(region);
+                }
+            }
+        } else {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream inputStream = new FileInputStream(file)) {
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    messageDigest.update(buffer, 0, read);
+                }
+            }
+        }
+
+        return messageDigest.digest();
+    }
+
+    /**
+     * Digest of the Red, Green and Blue values of every pixels.
+     * Images with the same raster digest have no difference with the default metric.
+     * NOTE: Alpha is ignored, like it is by the default metric.
+     *   Images with the same raster digest can still be different for metrics which read the Alpha values.
+     * @param pixelReader The image pixels.
+     * @return The digest of the image pixels.
+     */
+    public static byte[] digest(PixelReader pixelReader) {
+        MessageDigest messageDigest = newMessageDigest();
+        int width = pixelReader.getWidth(),
+            height = pixelReader.getHeight();
+
+        int[] row = pixelReader.createRowBuffer();
+        byte[] rowBytes = new byte[width * 3];
+        for (int y=0; y<height; y++) {
+            pixelReader.readRow(y, row);
+            for (int x=0, i=0; x<width; x++) {
+                int rgb = row[x];
+                rowBytes[i++] = (byte)(rgb >> 16);
+                rowBytes[i++] = (byte)(rgb >> 8);
+                rowBytes[i++] = (byte)rgb;
+            }
+            messageDigest.update(rowBytes);
+        }
+
+        return messageDigest.digest();
+    }
+
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch(NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(String.format("Missing digest algorithm: %s", ALGORITHM), ex);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Details of where two images differ, collected while the images are compared.
+ *
+ * <p>The report contains a heatmap of the differences, the bounding boxes
+ * of the regions which changed and the maximum error of each colour channel.
+ * Nothing is allocated until the first different pixel is found,
+ * so identical images cost almost nothing to report.</p>
+ *
+ * <p>The heatmap is black where the images are identical. Different pixels are
+ * red, turning to yellow as the difference gets larger.</p>
+ */
+public class DiffReport {
+    /**
+     * Size of the square tiles used to group the changed pixels into regions.
+     * Changed pixels in the same tile, or in touching tiles, belong to the same region.
+     */
+    public static final int TILE_SIZE = 16;
+
+    private static final int IDENTICAL_COLOUR = 0xFF000000;
+
+    private final int width;
+    private final int height;
+    private final int tileColumns;
+    private final int tileRows;
+
+    // Allocated when the first different pixel is found
+    private volatile BufferedImage heatmap = null;
+    private int[] heatmapData = null;
+    // Bounds of the changed pixels, for each tile. maxX < 0 when the tile has no changed pixel.
+    private int[] tileMinX, tileMinY, tileMaxX, tileMaxY;
+
+    private int maxRedError = 0;
+    private int maxGreenError = 0;
+    private int maxBlueError = 0;
+    private long changedPixelCount = 0;
+
+    private List<Rectangle> changedRegions = null;
+
+    DiffReport(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.tileColumns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tileRows = (height + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * @return True if at least one pixel is different.
+     */
+    public boolean hasDifferences() {
+        return this.heatmap != null;
+    }
+
+    /**
+     * @return The heatmap of the differences, or null if the images are identical.
+     */
+    public BufferedImage getHeatmap() {
+        return this.heatmap;
+    }
+
+    public synchronized int getMaxRedError() {
+        return this.maxRedError;
+    }
+
+    public synchronized int getMaxGreenError() {
+        return this.maxGreenError;
+    }
+
+    public synchronized int getMaxBlueError() {
+        return this.maxBlueError;
+    }
+
+    public synchronized long getChangedPixelCount() {
+        return this.changedPixelCount;
+    }
+
+    /**
+     * @return The bounding boxes of the regions which changed, from top to bottom.
+     */
+    public synchronized List<Rectangle> getChangedRegions() {
+        if (this.changedRegions == null) {
+            this.changedRegions = Collections.unmodifiableList(this.findChangedRegions());
+        }
+        return this.changedRegions;
+    }
+
+    /**
+     * Save the heatmap as a PNG file.
+     * @param file The PNG file to create.
+     * @return True if the file was written, false if there was no difference to write.
+     * @throws IOException If the file can't be written.
+     */
+    public boolean writeHeatmap(File file) throws IOException {
+        BufferedImage heatmap = this.heatmap;
+        if (heatmap == null) {
+            return false;
+        }
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Can not create the directory %s", directory));
+        }
+        if (!ImageIO.write(heatmap, "png", file)) {
+            throw new IOException(String.format("Can not write the heatmap file %s", file));
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        List<Rectangle> regions = this.getChangedRegions();
+        StringBuilder regionsStr = new StringBuilder();
+        for (int i=0; i<regions.size() && i<10; i++) {
+            Rectangle region = regions.get(i);
+            regionsStr.append(String.format("%n    [x: %d, y: %d, width: %d, height: %d]", region.x, region.y, region.width, region.height));
+        }
+        if (regions.size() > 10) {
+            regionsStr.append(String.format("%n    ... %d more", regions.size() - 10));
+        }
+
+        return String.format(
+                "Changed pixels: %d%n" +
+                "Max error     : Red %d, Green %d, Blue %d%n" +
+                "Changed regions: %d%s",
+                this.getChangedPixelCount(),
+                this.getMaxRedError(), this.getMaxGreenError(), this.getMaxBlueError(),
+                regions.size(), regionsStr);
+    }
+
+
+    /**
+     * @return The heatmap pixels, allocated on the first call.
+     */
+    synchronized int[] getHeatmapData() {
+        if (this.heatmapData == null) {
+            BufferedImage heatmap = new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_RGB);
+            int[] heatmapData = ((DataBufferInt)heatmap.getRaster().getDataBuffer()).getData();
+            Arrays.fill(heatmapData, IDENTICAL_COLOUR);
+
+            int tileCount = this.tileColumns * this.tileRows;
+            this.tileMinX = new int[tileCount];
+            this.tileMinY = new int[tileCount];
+            this.tileMaxX = new int[tileCount];
+            this.tileMaxY = new int[tileCount];
+            Arrays.fill(this.tileMaxX, -1);
+
+            this.heatmapData = heatmapData;
+            this.heatmap = heatmap;
+        }
+        return this.heatmapData;
+    }
+
+    /**
+     * Record a different pixel.
+     * NOTE: Not synchronised. Rows of the same tile must be compared by the same thread.
+     */
+    void markChanged(int[] heatmapData, int x, int y, int redError, int greenError, int blueError) {
+        int error = Math.max(redError, Math.max(greenError, blueError));
+        heatmapData[y * this.width + x] = getHeatmapColour(error);
+
+        int tile = (y / TILE_SIZE) * this.tileColumns + x / TILE_SIZE;
+        if (this.tileMaxX[tile] < 0) {
+            this.tileMinX[tile] = x;
+            this.tileMinY[tile] = y;
+            this.tileMaxX[tile] = x;
+            this.tileMaxY[tile] = y;
+        } else {
+            if (x < this.tileMinX[tile]) { this.tileMinX[tile] = x; }
+            if (x > this.tileMaxX[tile]) { this.tileMaxX[tile] = x; }
+            // Rows are compared from top to bottom
+            this.tileMaxY[tile] = y;
+        }
+    }
+
+    /**
+     * Merge the statistics of a band of rows.
+     */
+    synchronized void add(int maxRedError, int maxGreenError, int maxBlueError, long changedPixelCount) {
+        this.maxRedError = Math.max(this.maxRedError, maxRedError);
+        this.maxGreenError = Math.max(this.maxGreenError, maxGreenError);
+        this.maxBlueError = Math.max(this.maxBlueError, maxBlueError);
+        this.changedPixelCount += changedPixelCount;
+    }
+
+    /**
+     * Red for small errors, turning to yellow for large errors.
+     * Small errors are boosted to remain visible.
+     */
+    private static int getHeatmapColour(int error) {
+        int red = 96 + error * (255 - 96) / 255;
+        int green = error > 127 ? (error - 128) * 2 : 0;
+        return 0xFF000000 | red << 16 | green << 8;
+    }
+
+    /**
+     * Group the changed tiles which touch each other (including diagonally),
+     * and return the bounding box of the changed pixels of each group.
+     */
+    private List<Rectangle> findChangedRegions() {
+        List<Rectangle> regions = new ArrayList<Rectangle>();
+        if (this.heatmap == null) {
+            return regions;
+        }
+
+        int tileCount = this.tileColumns * this.tileRows;
+        boolean[] visited = new boolean[tileCount];
+        int[] stack = new int[tileCount];
+
+        for (int startTile=0; startTile<tileCount; startTile++) {
+            if (visited[startTile] || this.tileMaxX[startTile] < 0) {
+                continue;
+            }
+
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+            int stackSize = 0;
+            stack[stackSize++] = startTile;
+            visited[startTile] = true;
+
+            while (stackSize > 0) {
+                int tile = stack[--stackSize];
+                minX = Math.min(minX, this.tileMinX[tile]);
+                minY = Math.min(minY, this.tileMinY[tile]);
+                maxX = Math.max(maxX, this.tileMaxX[tile]);
+                maxY = Math.max(maxY, this.tileMaxY[tile]);
+
+                int column = tile % this.tileColumns, row = tile / this.tileColumns;
+                for (int neighbourRow = Math.max(0, row - 1); neighbourRow <= Math.min(this.tileRows - 1, row + 1); neighbourRow++) {
+                    for (int neighbourColumn = Math.max(0, column - 1); neighbourColumn <= Math.min(this.tileColumns - 1, column + 1); neighbourColumn++) {
+                        int neighbour = neighbourRow * this.tileColumns + neighbourColumn;
+                        if (!visited[neighbour] && this.tileMaxX[neighbour] >= 0) {
+                            visited[neighbour] = true;
+                            stack[stackSize++] = neighbour;
+                        }
+                    }
+                }
+            }
+
+            regions.add(new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1));
+        }
+
+        return regions;
+    }
+}
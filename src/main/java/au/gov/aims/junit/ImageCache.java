@@ -0,0 +1,226 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of decoded expected images, shared by all the assertions of a test suite.
+ *
+ * <p>Reference images are often used by many tests. The cache saves decoding them every time.
+ * Images are identified by their canonical path; an image is decoded again
+ * when its file last modified date or size changes.</p>
+ *
+ * <p>The memory used by the cached images is bounded. When the cache is full,
+ * the least recently used images are evicted. The cache is thread safe,
+ * it can be used by parallel test runners.</p>
+ *
+ * <p>The cached images are shared. They must not be modified.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * AssertImage.setImageCache(new ImageCache(512L * 1024 * 1024));
+ * </pre>
+ */
+public class ImageCache {
+    public static final long DEFAULT_MAXIMUM_SIZE = 256L * 1024 * 1024;
+
+    private final long maximumSize;
+
+    // Least recently used entry first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long size = 0;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    public ImageCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @param maximumSize Maximum memory used by the cached images, in bytes.
+     */
+    public ImageCache(long maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException(String.format("Invalid cache maximum size: %d", maximumSize));
+        }
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Get the decoded image from the cache, or decode it if it's not in the cache (or if the file changed).
+     * @param file The image file.
+     * @return The decoded image, or null if the file is not an image.
+     * @throws IOException If the file can't be read.
+     */
+    public BufferedImage getImage(File file) throws IOException {
+        PixelReader pixelReader = this.getPixelReader(file);
+        return pixelReader == null ? null : pixelReader.getImage();
+    }
+
+    /**
+     * Same as {@link #getImage(File)}, but returns the cached reader of the image.
+     * The reader keeps the image raster digest, once computed.
+     */
+    PixelReader getPixelReader(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        synchronized (this) {
+            this.updateSizes();
+            Entry entry = this.entries.get(key);
+            if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+                this.hitCount++;
+                return entry.pixelReader;
+            }
+            this.missCount++;
+        }
+
+        // Decode outside of the lock, to let the other threads use the cache in the meantime.
+        // NOTE: If two threads request the same image at the same time,
+        //   it might get decoded twice. It's not worth the complexity of preventing it.
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            return null;
+        }
+
+        PixelReader pixelReader = PixelReader.create(image);
+        this.put(key, new Entry(pixelReader, lastModified, length));
+        return pixelReader;
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        Entry previous = this.entries.remove(key);
+        if (previous != null) {
+            this.size -= previous.size;
+        }
+
+        // Images bigger than the cache are not cached
+        if (entry.size > this.maximumSize) {
+            return;
+        }
+
+        this.entries.put(key, entry);
+        this.size += entry.size;
+        this.evict();
+    }
+
+    /**
+     * The readers keep the raster digest and the pyramid of the images once computed (after they are cached).
+     * Count them in the size of the cache, and evict the least recently used images if the cache is now too large.
+     */
+    private void updateSizes() {
+        for (Entry entry : this.entries.values()) {
+            long entrySize = entry.getSize();
+            this.size += entrySize - entry.size;
+            entry.size = entrySize;
+        }
+        this.evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = this.entries.entrySet().iterator();
+        while (this.size > this.maximumSize && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            this.size -= eldest.size;
+            this.evictionCount++;
+        }
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+        this.size = 0;
+    }
+
+    public long getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    /**
+     * @return Memory used by the cached images, and the data computed from them, in bytes.
+     */
+    public synchronized long getSize() {
+        this.updateSizes();
+        return this.size;
+    }
+
+    public synchronized int getEntryCount() {
+        this.updateSizes();
+        return this.entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("ImageCache[entries: %d, size: %d/%d bytes, hits: %d, misses: %d, evictions: %d]",
+                this.entries.size(), this.size, this.maximumSize, this.hitCount, this.missCount, this.evictionCount);
+    }
+
+    /**
+     * @return The memory used by the image pixels, in bytes.
+     */
+    protected static long getImageSize(BufferedImage image) {
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        long elementSize = DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8;
+        return (long)dataBuffer.getSize() * dataBuffer.getNumBanks() * Math.max(1, elementSize);
+    }
+
+    private static class Entry {
+        private final PixelReader pixelReader;
+        private final long lastModified;
+        private final long length;
+        private final long imageSize;
+        // Size counted in the cache size
+        private long size;
+
+        public Entry(PixelReader pixelReader, long lastModified, long length) {
+            this.pixelReader = pixelReader;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.imageSize = getImageSize(pixelReader.getImage());
+            this.size = this.getSize();
+        }
+
+        public long getSize() {
+            return this.imageSize + this.pixelReader.getDerivedDataSize();
+        }
+    }
+}
@@ -0,0 +1,935 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compare the pixels of two images.
+ *
+ * <p>By default, the images are compared on the calling thread.
+ * When the parallel mode is enabled, the images are split into bands of rows,
+ * which are compared concurrently using a {@link ForkJoinPool}.
+ * Both modes return the exact same value since the channel differences
+ * are summed as integers.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * AssertImage.setImageComparator(new ImageComparator()
+ *         .setParallel(true)
+ *         .setMinimumTileSize(256 * 256));
+ * </pre>
+ */
+public class ImageComparator {
+    /**
+     * Default minimum number of pixels compared by a parallel task.
+     * Smaller bands are not worth the overhead of the fork-join framework.
+     */
+    public static final int DEFAULT_MINIMUM_TILE_SIZE = 128 * 1024;
+
+    private boolean parallel = false;
+    private ForkJoinPool forkJoinPool = null;
+    private int minimumTileSize = DEFAULT_MINIMUM_TILE_SIZE;
+    private boolean rasterDigestCheck = false;
+    private int stripHeight = 0;
+    private boolean diffReportEnabled = false;
+    private File diffOutputDirectory = null;
+    private ImageMetric metric = null;
+    private boolean pyramidCheck = false;
+    private boolean vectorApi = true;
+
+    public boolean isParallel() {
+        return this.parallel;
+    }
+
+    /**
+     * Enable or disable the parallel comparison.
+     * @param parallel True to compare bands of rows concurrently.
+     * @return This comparator, for chaining.
+     */
+    public ImageComparator setParallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
+    /**
+     * @return The pool used by the parallel comparison. Default: {@link ForkJoinPool#commonPool()}.
+     */
+    public ForkJoinPool getForkJoinPool() {
+        return this.forkJoinPool == null ? ForkJoinPool.commonPool() : this.forkJoinPool;
+    }
+
+    /**
+     * @param forkJoinPool The pool used by the parallel comparison,
+     *     or null to use the {@link ForkJoinPool#commonPool()}.
+     * @return This comparator, for chaining.
+     */
+    public ImageComparator setForkJoinPool(ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+        return this;
+    }
+
+    public int getMinimumTileSize() {
+        return this.minimumTileSize;
+    }
+
+    /**
+     * @param minimumTileSize Minimum number of pixels compared by a parallel task.
+     *     Tasks always contain at least one row.
+     * @return This comparator, for chaining.
+     */
+    public ImageComparator setMinimumTileSize(int minimumTileSize) {
+        if (minimumTileSize <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid minimum tile size: %d", minimumTileSize));
+        }
+        this.minimumTileSize = minimumTileSize;
+        return this;
+    }
+
+    public boolean isRasterDigestCheck() {
+        return this.rasterDigestCheck;
+    }
+
+    /**
+     * Enable or disable the raster digest check.
+     * When enabled, the digests of the decoded images pixels are compared before comparing the pixels.
+     * Images with the same digest are reported as identical without comparing their pixels.
+     * It's useful with an {@link ImageCache}, which keeps the digest of the expected images:
+     * only the digest of the actual image needs to be computed.
+     * NOTE: The digest ignores the Alpha values: the check is only used with the default metric,
+     *   {@link ImageMetrics#MEAN_ABSOLUTE_ERROR}.
+     * @param rasterDigestCheck True to compare the raster digests first.
+     * @return This comparator, for chaining.
+     */
+    public ImageComparator setRasterDigestCheck(boolean rasterDigestCheck) {
+        this.rasterDigestCheck = rasterDigestCheck;
+        return this;
+    }
+
+    public int getStripHeight() {
+        return this.stripHeight;
+    }
+
+    /**
+     * Enable or disable the streaming comparison of image files.
+     * When enabled, the image files are decoded and compared one strip of rows at a time,
+     * instead of being fully decoded before being compared.
+     * The memory used by the comparison is then bounded by the strip height
+     * rather than by the image size. Used to compare images which are too large to fit in memory.
+     * NOTE: Streamed images are compared sequentially, and are not cached.
+     *   The raster digest check and the pyramid pre-check are not used with streamed images.
+     *   Only the image formats which can decode a region without decoding the rows before it
+     *   (TIFF, BMP) are streamed; the other image files (PNG, JPEG, GIF) are decoded whole.
+     *   With Java 8, which has no TIFF reader, only BMP files are streamed.
+     * @param stripHeight Number of rows decoded at once, or 0 to decode the whole images.
+     * @return This comparator, for chaining.
+     */
+    public ImageComparator setStripHeight(int stripHeight) {
+        if (stripHeight < 0) {
+            throw new IllegalArgumentException(String.format("Invalid strip height: %d", stripHeight));
+        }
+        this.stripHeight = stripHeight;
+        return this;
+    }
+
+    public boolean isDiffReportEnabled() {
+        return this.diffReportEnabled;
+    }
+
+    /**
+     * Enable or disable the diff reports.
+     * When enabled, the comparison also produces a {@link DiffReport}: a heatmap of the differences,
+     * the bounding boxes of the changed regions and the maximum error of each colour channel.
+     * When an assertion fails, the heatmap is saved as a PNG file and the report is added to the failure message.
+     * NOTE: With diff reports, failing comparisons do not stop early, since the report covers the whole image.
+     * @param diffReportEnabled True to produce diff reports.
+     * @return This comparator, for chaining.
+     */
+    public ImageComparator setDiffReportEnabled(boolean diffReportEnabled) {
+        this.diffReportEnabled = diffReportEnabled;
+        return this;
+    }
+
+    public File getDiffOutputDirectory() {
+        return this.diffOutputDirectory;
+    }
+
+    /**
+     * @param diffOutputDirectory The directory where the heatmaps of the failed assertions are saved,
+     *     or null to save them next to the actual image file (or in the temporary directory
+     *     if the actual image is not a file).
+     * @return This comparator, for chaining.
+     */
+    public ImageComparator setDiffOutputDirectory(File diffOutputDirectory) {
+        this.diffOutputDirectory = diffOutputDirectory;
+        return this;
+    }
+
+    /**
+     * @return The metric used to compute the difference between images.
+     *     Default: {@link ImageMetrics#MEAN_ABSOLUTE_ERROR}.
+     */
+    public ImageMetric getMetric() {
+        return this.metric == null ? ImageMetrics.MEAN_ABSOLUTE_ERROR : this.metric;
+    }
+
+    /**
+     * Set the metric used to compute the difference between images.
+     * The assertions compare the metric {@link ImageMetric.Accumulator#getDifference() difference}
+     * against their delta.
+     * NOTE: The early exit and the diff reports are only available with the default metric,
+     *   {@link ImageMetrics#MEAN_ABSOLUTE_ERROR}. Other metrics always compare the whole image.
+     * NOTE: In parallel mode, metrics summing floating point values (such as SSIM)
+     *   may differ from the sequential mode in the last digits, since the bands are summed separately.
+     * @param metric The metric, or null to use the default metric.
+     * @return This comparator, for chaining.
+     */
+    public ImageComparator setMetric(ImageMetric metric) {
+        this.metric = metric;
+        return this;
+    }
+
+    public boolean isPyramidCheck() {
+        return this.pyramidCheck;
+    }
+
+    /**
+     * Enable or disable the pyramid pre-check of the comparisons with a delta.
+     * When enabled, the images are first compared using a multi-resolution summary
+     * of their pixels (see {@link ImagePyramid}), from the coarsest level to the finest.
+     * Each level gives an exact lower and upper bound of the difference:
+     * the comparison stops as soon as the bounds are both above the delta, or both below.
+     * When the finest level is not enough, only the bands of rows with the widest bounds
+     * are compared pixel by pixel, until the bounds allow a decision.
+     *
+     * <p>The outcome (difference above or below the delta) is always the same as the full comparison.
+     * When the difference exceeds the delta, the returned value is a lower bound, as for the early exit.
+     * When it doesn't, the returned value is an upper bound of the actual difference, at most the delta
+     * (see {@link ChannelDifference#isUpperBound()}), reported as such in the assertion messages.</p>
+     *
+     * <p>The summaries are kept with the decoded images, so the summaries of the images
+     * in the {@link ImageCache} are only computed once.</p>
+     *
+     * NOTE: The pre-check is only used with a delta strictly between 0 and infinity, without diff report,
+     *   with the default metric, and with images which are not streamed.
+     * @param pyramidCheck True to compare the image summaries first.
+     * @return This comparator, for chaining.
+     */
+    public ImageComparator setPyramidCheck(boolean pyramidCheck) {
+        this.pyramidCheck = pyramidCheck;
+        return this;
+    }
+
+    /**
+     * @return True if the Vector API can be used by this JVM.
+     * @see #setVectorApi(boolean)
+     */
+    public static boolean isVectorApiAvailable() {
+        return ChannelDifferenceKernel.isVectorApiAvailable();
+    }
+
+    public boolean isVectorApi() {
+        return this.vectorApi;
+    }
+
+    /**
+     * Enable or disable the use of the Vector API to sum the channel differences.
+     * The Vector API is only available with Java 17 or later, when the incubator module is enabled:
+     * {@code --add-modules jdk.incubator.vector}. Otherwise, the comparator uses a scalar loop
+     * which returns the exact same value.
+     * It can also be disabled for the whole JVM: {@code -Dau.gov.aims.junit.vectorApi=false}
+     *
+     * NOTE: The Vector API is not used for the diff report, nor for the comparisons with a delta of 0,
+     *   which stop on the first different pixel.
+     * @param vectorApi True to use the Vector API when available. Enabled by default.
+     * @return This comparator, for chaining.
+     */
+    public ImageComparator setVectorApi(boolean vectorApi) {
+        this.vectorApi = vectorApi;
+        return this;
+    }
+
+    private ChannelDifferenceKernel getKernel() {
+        return this.vectorApi ? ChannelDifferenceKernel.getInstance() : ChannelDifferenceKernel.SCALAR;
+    }
+
+    /**
+     * Compute a metric on two images, and return its value in the metric unit.
+     * For example, the value of {@link ImageMetrics#PEAK_SIGNAL_TO_NOISE_RATIO} is in dB.
+     * The comparator metric is ignored; the parallel mode is used if enabled.
+     * @param expectedImage The reference image.
+     * @param actualImage The generated image.
+     * @param metric The metric to compute.
+     * @return The value of the metric.
+     * @throws IOException If the images dimensions are different.
+     */
+    public double getMetricValue(BufferedImage expectedImage, BufferedImage actualImage, ImageMetric metric) throws IOException {
+        if (expectedImage == null) {
+            throw new IOException("Expected image must not be null.");
+        }
+        if (actualImage == null) {
+            throw new IOException("Actual image must not be null.");
+        }
+        if (metric == null) {
+            throw new IllegalArgumentException("Metric must not be null.");
+        }
+        PixelReader expectedPixelReader = PixelReader.create(expectedImage);
+        PixelReader actualPixelReader = PixelReader.create(actualImage);
+        checkDimensions(expectedPixelReader, actualPixelReader);
+        return this.computeMetric(expectedPixelReader, actualPixelReader, metric, null).getValue();
+    }
+
+    /**
+     * Compare two images, pixel by pixel, and return where they differ.
+     * The report is produced even if diff reports are not {@link #setDiffReportEnabled(boolean) enabled}.
+     * @param expectedImage The reference image.
+     * @param actualImage The generated image.
+     * @return The report of the differences between the two images.
+     * @throws IOException If the images dimensions are different.
+     */
+    public DiffReport getDiffReport(BufferedImage expectedImage, BufferedImage actualImage) throws IOException {
+        if (expectedImage == null) {
+            throw new IOException("Expected image must not be null.");
+        }
+        if (actualImage == null) {
+            throw new IOException("Actual image must not be null.");
+        }
+        return this.getChannelDifference(PixelReader.create(expectedImage), PixelReader.create(actualImage),
+                Double.POSITIVE_INFINITY, true, null).getDiffReport();
+    }
+
+    /**
+     * Compare two images, pixel by pixel, and return the difference in percent.
+     * @param expectedImage The reference image.
+     * @param actualImage The generated image.
+     * @return The percentage of difference between the two images; value between [0,1].
+     * @throws IOException If the images dimensions are different.
+     */
+    public double getImageDifference(BufferedImage expectedImage, BufferedImage actualImage) throws IOException {
+        return this.getImageDifference(expectedImage, actualImage, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Compare two images, pixel by pixel, until the difference is known to exceed the delta.
+     * This is used to quickly reject images which are completely different.
+     * When the delta is 0, the comparison stops on the first different pixel.
+     * @param expectedImage The reference image.
+     * @param actualImage The generated image.
+     * @param delta The maximum difference allowed; value between [0,1].
+     * @return The percentage of difference between the two images; value between [0,1].
+     *     If the difference exceeds the delta, the returned value may only be a lower bound
+     *     of the actual difference, but it is guaranteed to be greater than the delta.
+     * @throws IOException If the images dimensions are different.
+     */
+    public double getImageDifference(BufferedImage expectedImage, BufferedImage actualImage, double delta) throws IOException {
+        if (expectedImage == null) {
+            throw new IOException("Expected image must not be null.");
+        }
+        if (actualImage == null) {
+            throw new IOException("Actual image must not be null.");
+        }
+        return this.getChannelDifference(PixelReader.create(expectedImage), PixelReader.create(actualImage), delta).getDifference();
+    }
+
+    /**
+     * Compare two rasters, pixel by pixel, and return the difference in percent.
+     * The rasters bands are interpreted as Grey, Grey + Alpha, RGB or RGBA,
+     * according to their number of bands.
+     * @param expectedRaster The reference raster.
+     * @param actualRaster The generated raster.
+     * @return The percentage of difference between the two rasters; value between [0,1].
+     * @throws IOException If the rasters dimensions are different.
+     */
+    public double getImageDifference(Raster expectedRaster, Raster actualRaster) throws IOException {
+        return this.getImageDifference(expectedRaster, actualRaster, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Compare two rasters, pixel by pixel, until the difference is known to exceed the delta.
+     * @see #getImageDifference(BufferedImage, BufferedImage, double)
+     */
+    public double getImageDifference(Raster expectedRaster, Raster actualRaster, double delta) throws IOException {
+        if (expectedRaster == null) {
+            throw new IOException("Expected raster must not be null.");
+        }
+        if (actualRaster == null) {
+            throw new IOException("Actual raster must not be null.");
+        }
+        return this.getChannelDifference(PixelReader.create(expectedRaster), PixelReader.create(actualRaster), delta).getDifference();
+    }
+
+    /**
+     * @throws IOException If the images dimensions are different.
+     */
+    protected ChannelDifference getChannelDifference(PixelReader expectedPixelReader, PixelReader actualPixelReader, double delta) throws IOException {
+        return this.getChannelDifference(expectedPixelReader, actualPixelReader, delta, this.diffReportEnabled, null);
+    }
+
+    /**
+     * @param metrics The measures of the comparison, or null if the comparison is not measured.
+     * @throws IOException If the images dimensions are different.
+     */
+    ChannelDifference getChannelDifference(PixelReader expectedPixelReader, PixelReader actualPixelReader, double delta, ComparisonMetrics metrics) throws IOException {
+        return this.getChannelDifference(expectedPixelReader, actualPixelReader, delta, this.diffReportEnabled, metrics);
+    }
+
+    private ChannelDifference getChannelDifference(PixelReader expectedPixelReader, PixelReader actualPixelReader, double delta, boolean diffReportEnabled, ComparisonMetrics metrics) throws IOException {
+        checkDimensions(expectedPixelReader, actualPixelReader);
+
+        int width = expectedPixelReader.getWidth(),
+            height = expectedPixelReader.getHeight();
+
+        DiffReport diffReport = diffReportEnabled ? new DiffReport(width, height) : null;
+
+        if (expectedPixelReader.getImage() != null && expectedPixelReader.getImage() == actualPixelReader.getImage()) {
+            return identical(diffReport);
+        }
+        // Streamed images would be decoded twice: once for the digest, once for the comparison.
+        // The digest only covers the Red, Green and Blue values: other metrics may read the Alpha values.
+        if (this.rasterDigestCheck && this.isDefaultMetric() &&
+                !expectedPixelReader.isSequential() && !actualPixelReader.isSequential() &&
+                Arrays.equals(expectedPixelReader.getRasterDigest(), actualPixelReader.getRasterDigest())) {
+            return identical(diffReport);
+        }
+
+        if (!this.isDefaultMetric()) {
+            return new MetricDifference(this.computeMetric(expectedPixelReader, actualPixelReader, this.metric, metrics));
+        }
+
+        if (this.pyramidCheck && diffReport == null && delta > 0 && delta < Double.POSITIVE_INFINITY &&
+                !expectedPixelReader.isSequential() && !actualPixelReader.isSequential()) {
+            return this.getPyramidDifference(expectedPixelReader, actualPixelReader, delta, metrics);
+        }
+
+        CompareRowsContext context = new CompareRowsContext(expectedPixelReader, actualPixelReader, delta, diffReport, this.getKernel(), metrics);
+
+        ChannelDifference channelDifference;
+        try {
+            // Images decoded while they are read (streaming) can't be shared between threads
+            if (this.parallel && !expectedPixelReader.isSequential() && !actualPixelReader.isSequential()) {
+                int rowsPerTile = Math.max(1, this.minimumTileSize / Math.max(1, width));
+                // Rows of the same diff report tile must be compared by the same task
+                if (diffReport != null) {
+                    rowsPerTile = alignRow(rowsPerTile + DiffReport.TILE_SIZE - 1, context);
+                }
+                channelDifference = this.getForkJoinPool().invoke(
+                        new CompareRowsTask(context, 0, height, rowsPerTile));
+            } else {
+                channelDifference = new ChannelDifference();
+                compareRows(context, 0, height, channelDifference);
+            }
+        } catch(UncheckedIOException ex) {
+            // Error while decoding a strip of a streamed image
+            throw ex.getCause();
+        }
+
+        channelDifference.pixelCount = context.pixelCount;
+        channelDifference.diffReport = diffReport;
+        return channelDifference;
+    }
+
+    /**
+     * Feed all the rows of the images to the metric, in bands of rows if the parallel mode is enabled.
+     */
+    private ImageMetric.Accumulator computeMetric(PixelReader expectedPixelReader, PixelReader actualPixelReader, ImageMetric metric, ComparisonMetrics metrics) throws IOException {
+        int width = expectedPixelReader.getWidth(),
+            height = expectedPixelReader.getHeight();
+
+        try {
+            if (this.parallel && !expectedPixelReader.isSequential() && !actualPixelReader.isSequential()) {
+                // The overlapping rows are read twice, keep them small compared to the bands
+                int rowsPerTile = Math.max(Math.max(1, this.minimumTileSize / Math.max(1, width)), 4 * metric.getRowOverlap());
+                return this.getForkJoinPool().invoke(
+                        new MetricRowsTask(expectedPixelReader, actualPixelReader, metric, metrics, 0, height, rowsPerTile));
+            }
+            return measureRows(expectedPixelReader, actualPixelReader, metric, metrics, 0, height);
+        } catch(UncheckedIOException ex) {
+            // Error while decoding a strip of a streamed image
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Feed the rows [startRow, endRow[ to a new accumulator, preceded by the overlapping rows needed by the metric.
+     */
+    private static ImageMetric.Accumulator measureRows(
+            PixelReader expectedPixelReader, PixelReader actualPixelReader,
+            ImageMetric metric, ComparisonMetrics metrics, int startRow, int endRow) {
+
+        long bandStart = metrics == null ? 0 : System.nanoTime();
+        long pixelExtractionNanos = 0;
+
+        ImageMetric.Accumulator accumulator = metric.createAccumulator(
+                expectedPixelReader.getWidth(), expectedPixelReader.getHeight(), startRow);
+
+        int[] expectedRGBRow = expectedPixelReader.createRowBuffer();
+        int[] actualRGBRow = actualPixelReader.createRowBuffer();
+
+        for (int y=Math.max(0, startRow - metric.getRowOverlap()); y<endRow; y++) {
+            if (metrics == null) {
+                expectedPixelReader.readRow(y, expectedRGBRow);
+                actualPixelReader.readRow(y, actualRGBRow);
+            } else {
+                long readStart = System.nanoTime();
+                expectedPixelReader.readRow(y, expectedRGBRow);
+                actualPixelReader.readRow(y, actualRGBRow);
+                pixelExtractionNanos += System.nanoTime() - readStart;
+            }
+            accumulator.addRow(y, expectedRGBRow, actualRGBRow);
+        }
+
+        if (metrics != null) {
+            metrics.addBandNanos(pixelExtractionNanos, System.nanoTime() - bandStart - pixelExtractionNanos);
+        }
+        return accumulator;
+    }
+
+    /**
+     * Bound the difference using the image pyramids, from the coarsest level to the finest,
+     * then compare the bands of rows with the widest bounds, until the bounds are decisive.
+     * If every band is compared, the bounds are equal to the exact difference, which is always decisive.
+     */
+    private ChannelDifference getPyramidDifference(PixelReader expectedPixelReader, PixelReader actualPixelReader, double delta, ComparisonMetrics metrics) {
+        ForkJoinPool forkJoinPool = this.parallel ? this.getForkJoinPool() : null;
+        ImagePyramid expectedPyramid = expectedPixelReader.getPyramid(forkJoinPool);
+        ImagePyramid actualPyramid = actualPixelReader.getPyramid(forkJoinPool);
+        long pixelCount = (long)expectedPixelReader.getWidth() * expectedPixelReader.getHeight();
+
+        ChannelDifference coarseDifference = getBoundedDifference(expectedPyramid, actualPyramid, pixelCount, delta, 1);
+        if (coarseDifference != null) {
+            return coarseDifference;
+        }
+
+        // Finest level: bounds per band of rows, so the undecided bands can be compared
+        ImagePyramid.Level expectedLevel = expectedPyramid.getLevel(0);
+        ImagePyramid.Level actualLevel = actualPyramid.getLevel(0);
+        long[] bandLowerBounds = new long[expectedLevel.rows];
+        long[] bandUpperBounds = new long[expectedLevel.rows];
+        long lowerBound = 0, upperBound = 0;
+        for (int block=0; block<expectedLevel.getBlockCount(); block++) {
+            int band = block / expectedLevel.columns;
+            long blockLowerBound = expectedLevel.getLowerBound(actualLevel, block);
+            long blockUpperBound = expectedLevel.getUpperBound(actualLevel, block);
+            bandLowerBounds[band] += blockLowerBound;
+            bandUpperBounds[band] += blockUpperBound;
+            lowerBound += blockLowerBound;
+            upperBound += blockUpperBound;
+        }
+
+        // Widest bounds first: they are the most likely to change the decision
+        List<Integer> bands = new ArrayList<Integer>(expectedLevel.rows);
+        for (int band=0; band<expectedLevel.rows; band++) {
+            if (bandUpperBounds[band] > bandLowerBounds[band]) {
+                bands.add(band);
+            }
+        }
+        bands.sort((band1, band2) -> Long.compare(
+                bandUpperBounds[band2] - bandLowerBounds[band2],
+                bandUpperBounds[band1] - bandLowerBounds[band1]));
+
+        CompareRowsContext context = new CompareRowsContext(expectedPixelReader, actualPixelReader, Double.POSITIVE_INFINITY, null, this.getKernel(), metrics);
+        for (int band : bands) {
+            ChannelDifference difference = getBoundedDifference(lowerBound, upperBound, pixelCount, delta);
+            if (difference != null) {
+                return difference;
+            }
+
+            int startRow = band * expectedLevel.blockSize;
+            ChannelDifference bandDifference = new ChannelDifference();
+            compareRows(context, startRow, Math.min(expectedLevel.height, startRow + expectedLevel.blockSize), bandDifference);
+            long bandSum = bandDifference.getSum();
+            lowerBound += bandSum - bandLowerBounds[band];
+            upperBound += bandSum - bandUpperBounds[band];
+        }
+
+        // Every undecided band was compared: the bounds are exact
+        return getBoundedDifference(lowerBound, upperBound, pixelCount, delta);
+    }
+
+    /**
+     * Compare an image with the signature of the expected image, without the expected image pixels.
+     * The images are identical if the digests of their pixels are identical.
+     * Otherwise, the difference is bounded using the image pyramids, as done by the pyramid pre-check.
+     * @param expectedSignature The signature of the expected image.
+     * @param actualPixelReader The actual image, with the same dimensions as the expected image.
+     * @param delta The maximum difference allowed.
+     * @return The difference, or null if the expected image pixels are needed to compare the images.
+     */
+    ChannelDifference getSignatureDifference(ImageSignature expectedSignature, PixelReader actualPixelReader, double delta) {
+        // The signature can't produce a diff report, and it only describes the Red, Green and Blue values
+        // used by the default metric (other metrics may read the Alpha values)
+        if (this.diffReportEnabled || !this.isDefaultMetric()) {
+            return null;
+        }
+
+        if (Arrays.equals(expectedSignature.getRasterDigest(), actualPixelReader.getRasterDigest())) {
+            return new ChannelDifference();
+        }
+
+        // The bounds can't produce an unbounded difference
+        if (!(delta < Double.POSITIVE_INFINITY) || actualPixelReader.isSequential()) {
+            return null;
+        }
+        ImagePyramid actualPyramid = actualPixelReader.getPyramid(this.parallel ? this.getForkJoinPool() : null);
+        long pixelCount = (long)actualPixelReader.getWidth() * actualPixelReader.getHeight();
+        return getBoundedDifference(expectedSignature.getPyramid(), actualPyramid, pixelCount, delta, 0);
+    }
+
+    /**
+     * Bound the difference using the levels of the image pyramids, from the coarsest level to the lowest level requested.
+     * @return The difference, if the bounds of a level are decisive, null otherwise.
+     */
+    private static ChannelDifference getBoundedDifference(ImagePyramid expectedPyramid, ImagePyramid actualPyramid, long pixelCount, double delta, int lowestLevel) {
+        for (int levelIndex=expectedPyramid.getLevelCount()-1; levelIndex>=lowestLevel; levelIndex--) {
+            ImagePyramid.Level expectedLevel = expectedPyramid.getLevel(levelIndex);
+            ImagePyramid.Level actualLevel = actualPyramid.getLevel(levelIndex);
+            long lowerBound = 0, upperBound = 0;
+            for (int block=0; block<expectedLevel.getBlockCount(); block++) {
+                lowerBound += expectedLevel.getLowerBound(actualLevel, block);
+                upperBound += expectedLevel.getUpperBound(actualLevel, block);
+            }
+            ChannelDifference difference = getBoundedDifference(lowerBound, upperBound, pixelCount, delta);
+            if (difference != null) {
+                return difference;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The difference, if the bounds are decisive, null otherwise.
+     */
+    private static ChannelDifference getBoundedDifference(long lowerBound, long upperBound, long pixelCount, double delta) {
+        if (ChannelDifference.getDifference(lowerBound, pixelCount) > delta) {
+            return new BoundedDifference(lowerBound, pixelCount, true, false);
+        }
+        if (ChannelDifference.getDifference(upperBound, pixelCount) <= delta) {
+            // The bounds are equal once every undecided band is compared
+            return new BoundedDifference(upperBound, pixelCount, false, upperBound > lowerBound);
+        }
+        return null;
+    }
+
+    private boolean isDefaultMetric() {
+        return this.metric == null || this.metric == ImageMetrics.MEAN_ABSOLUTE_ERROR;
+    }
+
+    private static ChannelDifference identical(DiffReport diffReport) {
+        ChannelDifference channelDifference = new ChannelDifference();
+        channelDifference.diffReport = diffReport;
+        return channelDifference;
+    }
+
+    /**
+     * Round a row index down to the first row of a diff report tile, if the comparison produces a diff report.
+     */
+    private static int alignRow(int row, CompareRowsContext context) {
+        return context.diffReport == null ? row : row - row % DiffReport.TILE_SIZE;
+    }
+
+    private static void checkDimensions(PixelReader expectedPixelReader, PixelReader actualPixelReader) throws IOException {
+        if (actualPixelReader.getWidth() != expectedPixelReader.getWidth() || actualPixelReader.getHeight() != expectedPixelReader.getHeight()) {
+            throw new IOException(String.format(
+                    "Images dimensions are incompatible. " +
+                    "Expected image: [%dpx x %dpx]. " +
+                    "Actual image: [%dpx x %dpx].",
+                    expectedPixelReader.getWidth(), expectedPixelReader.getHeight(),
+                    actualPixelReader.getWidth(), actualPixelReader.getHeight()));
+        }
+    }
+
+    /**
+     * Sum the channel differences of the rows [startRow, endRow[.
+     * Stop as soon as the difference of the whole image is known to exceed the context delta.
+     */
+    private static void compareRows(
+            CompareRowsContext context,
+            int startRow, int endRow,
+            ChannelDifference channelDifference) {
+
+        PixelReader expectedPixelReader = context.expectedPixelReader;
+        PixelReader actualPixelReader = context.actualPixelReader;
+        int width = expectedPixelReader.getWidth();
+
+        ComparisonMetrics metrics = context.metrics;
+        long bandStart = metrics == null ? 0 : System.nanoTime();
+        long pixelExtractionNanos = 0;
+
+        // One int per pixel (values of Alpha, Red, Green, Blue encoded as an int)
+        // NOTE: These buffers are re-used for every rows, to save precious garbage collection time.
+        int[] expectedRGBRow = expectedPixelReader.createRowBuffer();
+        int[] actualRGBRow = actualPixelReader.createRowBuffer();
+
+        long redDiff = 0, greenDiff = 0, blueDiff = 0;
+        // Red, Green and Blue sums of the kernel
+        long[] channelSums = new long[3];
+
+        // Diff report statistics
+        int maxRedError = 0, maxGreenError = 0, maxBlueError = 0;
+        long changedPixelCount = 0;
+        int[] heatmapData = null;
+
+        for (int y=startRow; y<endRow && !context.exceeded; y++) {
+            if (metrics == null) {
+                expectedPixelReader.readRow(y, expectedRGBRow);
+                actualPixelReader.readRow(y, actualRGBRow);
+            } else {
+                long readStart = System.nanoTime();
+                expectedPixelReader.readRow(y, expectedRGBRow);
+                actualPixelReader.readRow(y, actualRGBRow);
+                pixelExtractionNanos += System.nanoTime() - readStart;
+            }
+
+            if (context.diffReport != null) {
+                DiffReport diffReport = context.diffReport;
+                for (int x=0; x<width; x++) {
+                    int expectedRGB = expectedRGBRow[x];
+                    int actualRGB = actualRGBRow[x];
+
+                    int redError = Math.abs(((expectedRGB >> 16) & 0xFF) - ((actualRGB >> 16) & 0xFF));
+                    int greenError = Math.abs(((expectedRGB >> 8) & 0xFF) - ((actualRGB >> 8) & 0xFF));
+                    int blueError = Math.abs((expectedRGB & 0xFF) - (actualRGB & 0xFF));
+
+                    if ((redError | greenError | blueError) != 0) {
+                        redDiff += redError;
+                        greenDiff += greenError;
+                        blueDiff += blueError;
+
+                        if (redError > maxRedError) { maxRedError = redError; }
+                        if (greenError > maxGreenError) { maxGreenError = greenError; }
+                        if (blueError > maxBlueError) { maxBlueError = blueError; }
+                        changedPixelCount++;
+
+                        if (heatmapData == null) {
+                            heatmapData = diffReport.getHeatmapData();
+                        }
+                        diffReport.markChanged(heatmapData, x, y, redError, greenError, blueError);
+                    }
+                }
+
+            } else if (context.exactMatch) {
+                // Nothing to sum, stop on the first different pixel.
+                for (int x=0; x<width; x++) {
+                    int expectedRGB = expectedRGBRow[x];
+                    int actualRGB = actualRGBRow[x];
+                    if (((expectedRGB ^ actualRGB) & 0xFFFFFF) != 0) {
+                        redDiff += Math.abs(((expectedRGB >> 16) & 0xFF) - ((actualRGB >> 16) & 0xFF));
+                        greenDiff += Math.abs(((expectedRGB >> 8) & 0xFF) - ((actualRGB >> 8) & 0xFF));
+                        blueDiff += Math.abs((expectedRGB & 0xFF) - (actualRGB & 0xFF));
+                        context.exceeded = true;
+                        break;
+                    }
+                }
+
+            } else {
+                context.kernel.addDifferences(expectedRGBRow, actualRGBRow, width, channelSums);
+
+                if (context.isBounded() && context.exceeds(channelSums[0] + channelSums[1] + channelSums[2])) {
+                    context.exceeded = true;
+                }
+            }
+        }
+        redDiff += channelSums[0];
+        greenDiff += channelSums[1];
+        blueDiff += channelSums[2];
+
+        channelDifference.redDiff += redDiff;
+        channelDifference.greenDiff += greenDiff;
+        channelDifference.blueDiff += blueDiff;
+        channelDifference.exceeded = context.exceeded;
+        context.completedSum.addAndGet(redDiff + greenDiff + blueDiff);
+        if (context.diffReport != null) {
+            context.diffReport.add(maxRedError, maxGreenError, maxBlueError, changedPixelCount);
+        }
+        if (metrics != null) {
+            metrics.addBandNanos(pixelExtractionNanos, System.nanoTime() - bandStart - pixelExtractionNanos);
+        }
+    }
+
+    /**
+     * State shared by all the bands of a comparison.
+     */
+    private static class CompareRowsContext {
+        private final PixelReader expectedPixelReader;
+        private final PixelReader actualPixelReader;
+        private final double delta;
+        private final boolean exactMatch;
+        private final long pixelCount;
+        private final DiffReport diffReport;
+        private final ChannelDifferenceKernel kernel;
+        private final ComparisonMetrics metrics;
+
+        // Sum of the differences of the bands which are already compared
+        private final AtomicLong completedSum = new AtomicLong(0);
+
+        // Set as soon as a band finds out that the difference exceeds the delta
+        private volatile boolean exceeded = false;
+
+        public CompareRowsContext(PixelReader expectedPixelReader, PixelReader actualPixelReader, double delta, DiffReport diffReport,
+                ChannelDifferenceKernel kernel, ComparisonMetrics metrics) {
+            this.expectedPixelReader = expectedPixelReader;
+            this.actualPixelReader = actualPixelReader;
+            this.diffReport = diffReport;
+            this.kernel = kernel;
+            this.metrics = metrics;
+            // The diff report needs the whole image to be compared
+            this.delta = diffReport == null ? delta : Double.POSITIVE_INFINITY;
+            this.exactMatch = this.delta == 0;
+            this.pixelCount = (long)expectedPixelReader.getWidth() * expectedPixelReader.getHeight();
+        }
+
+        public boolean isBounded() {
+            return this.delta < Double.POSITIVE_INFINITY;
+        }
+
+        /**
+         * The difference can only grow as more pixels are compared,
+         * and the conversion to percentage is monotonic, so the full image difference
+         * is guaranteed to exceed the delta as soon as a partial sum does.
+         */
+        public boolean exceeds(long bandSum) {
+            return ChannelDifference.getDifference(this.completedSum.get() + bandSum, this.pixelCount) > this.delta;
+        }
+    }
+
+    /**
+     * Split the rows in two halves until the bands are small enough to be compared by a single task.
+     */
+    private static class CompareRowsTask extends RecursiveTask<ChannelDifference> {
+        private final CompareRowsContext context;
+        private final int startRow;
+        private final int endRow;
+        private final int rowsPerTile;
+
+        public CompareRowsTask(CompareRowsContext context, int startRow, int endRow, int rowsPerTile) {
+            this.context = context;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.rowsPerTile = rowsPerTile;
+        }
+
+        @Override
+        protected ChannelDifference compute() {
+            int rows = this.endRow - this.startRow;
+            int middleRow = alignRow(this.startRow + rows / 2, this.context);
+            if (rows <= this.rowsPerTile || middleRow <= this.startRow) {
+                ChannelDifference channelDifference = new ChannelDifference();
+                compareRows(this.context, this.startRow, this.endRow, channelDifference);
+                return channelDifference;
+            }
+
+            CompareRowsTask top = new CompareRowsTask(this.context, this.startRow, middleRow, this.rowsPerTile);
+            CompareRowsTask bottom = new CompareRowsTask(this.context, middleRow, this.endRow, this.rowsPerTile);
+
+            top.fork();
+            ChannelDifference channelDifference = bottom.compute();
+            channelDifference.add(top.join());
+            return channelDifference;
+        }
+    }
+
+    /**
+     * Same as {@link CompareRowsTask}, for the metrics other than the default one.
+     * The accumulators are merged in the order of the bands.
+     */
+    private static class MetricRowsTask extends RecursiveTask<ImageMetric.Accumulator> {
+        private final PixelReader expectedPixelReader;
+        private final PixelReader actualPixelReader;
+        private final ImageMetric metric;
+        private final ComparisonMetrics metrics;
+        private final int startRow;
+        private final int endRow;
+        private final int rowsPerTile;
+
+        public MetricRowsTask(PixelReader expectedPixelReader, PixelReader actualPixelReader,
+                ImageMetric metric, ComparisonMetrics metrics, int startRow, int endRow, int rowsPerTile) {
+            this.expectedPixelReader = expectedPixelReader;
+            this.actualPixelReader = actualPixelReader;
+            this.metric = metric;
+            this.metrics = metrics;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.rowsPerTile = rowsPerTile;
+        }
+
+        @Override
+        protected ImageMetric.Accumulator compute() {
+            int rows = this.endRow - this.startRow;
+            if (rows <= this.rowsPerTile) {
+                return measureRows(this.expectedPixelReader, this.actualPixelReader, this.metric, this.metrics, this.startRow, this.endRow);
+            }
+
+            int middleRow = this.startRow + rows / 2;
+            MetricRowsTask top = new MetricRowsTask(this.expectedPixelReader, this.actualPixelReader, this.metric, this.metrics, this.startRow, middleRow, this.rowsPerTile);
+            MetricRowsTask bottom = new MetricRowsTask(this.expectedPixelReader, this.actualPixelReader, this.metric, this.metrics, middleRow, this.endRow, this.rowsPerTile);
+
+            top.fork();
+            ImageMetric.Accumulator bottomAccumulator = bottom.compute();
+            ImageMetric.Accumulator accumulator = top.join();
+            accumulator.merge(bottomAccumulator);
+            return accumulator;
+        }
+    }
+
+    /**
+     * Difference computed by a metric other than the default one.
+     */
+    private static class MetricDifference extends ChannelDifference {
+        private final ImageMetric.Accumulator accumulator;
+
+        public MetricDifference(ImageMetric.Accumulator accumulator) {
+            this.accumulator = accumulator;
+        }
+
+        @Override
+        public double getDifference() {
+            return this.accumulator.getDifference();
+        }
+    }
+
+    /**
+     * Difference bounded by the pyramid pre-check.
+     * Only the sum of the channels is known, not the sum of each channel.
+     */
+    private static class BoundedDifference extends ChannelDifference {
+        private final long sum;
+
+        public BoundedDifference(long sum, long pixelCount, boolean exceeded, boolean upperBound) {
+            this.sum = sum;
+            this.pixelCount = pixelCount;
+            this.exceeded = exceeded;
+            this.upperBound = upperBound;
+        }
+
+        @Override
+        public long getSum() {
+            return this.sum;
+        }
+    }
+}
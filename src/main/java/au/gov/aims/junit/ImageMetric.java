@@ -0,0 +1,84 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+/**
+ * Strategy used to quantify the difference between two images.
+ *
+ * <p>Metrics are computed one row at a time. The {@link ImageComparator}
+ * feeds the rows of the images to an {@link Accumulator}, as packed ARGB int values.
+ * In parallel mode, the image is split into bands of rows; each band has its own accumulator,
+ * and the accumulators are merged once all the bands are done.</p>
+ *
+ * <p>Metrics working on windows of pixels (such as SSIM) need the rows above
+ * the first row of a band. They declare it with {@link #getRowOverlap()}:
+ * the comparator feeds those rows to the accumulator before the rows of the band.</p>
+ *
+ * @see ImageMetrics for the built-in metrics.
+ */
+public interface ImageMetric {
+
+    /**
+     * @return The name of the metric, used in messages.
+     */
+    String getName();
+
+    /**
+     * @return The number of rows, before the first row of a band, needed to compute the band.
+     *     0 for metrics computed pixel by pixel.
+     */
+    int getRowOverlap();
+
+    /**
+     * @param width The width of the images.
+     * @param height The height of the images.
+     * @param firstRow The first row of the band. The rows before it, if any,
+     *     are only given to compute the windows which overlap the band.
+     * @return A new accumulator, for a band of rows.
+     */
+    Accumulator createAccumulator(int width, int height, int firstRow);
+
+    interface Accumulator {
+        /**
+         * Add a row of pixels. Rows are added in order.
+         * The row buffers are re-used for every rows, and may be longer than the image width.
+         * @param y The row index.
+         * @param expectedRow The expected image pixels, as packed ARGB int values.
+         * @param actualRow The actual image pixels, as packed ARGB int values.
+         */
+        void addRow(int y, int[] expectedRow, int[] actualRow);
+
+        /**
+         * Merge the accumulator of the band following this one.
+         * @param other An accumulator created by the same metric.
+         */
+        void merge(Accumulator other);
+
+        /**
+         * @return The value of the metric, in its own unit (for example dB for PSNR).
+         */
+        double getValue();
+
+        /**
+         * @return The value of the metric, normalised as a difference between [0,1];
+         *     0 when the images are identical. Used by the assertions.
+         */
+        double getDifference();
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+/**
+ * The built-in image metrics.
+ *
+ * <p>Example:</p>
+ * <pre>
+ * // Tolerate JPEG noise, but not structural changes
+ * AssertImage.setImageComparator(new ImageComparator().setMetric(ImageMetrics.ssim()));
+ * </pre>
+ */
+public final class ImageMetrics {
+    /**
+     * Mean absolute error of the Red, Green and Blue channels. Alpha is ignored.
+     * This is the default metric.
+     */
+    public static final ImageMetric MEAN_ABSOLUTE_ERROR = new MeanAbsoluteErrorMetric();
+
+    /**
+     * Root mean square error of the Red, Green and Blue channels, normalised between [0,1].
+     * Large errors weight more than with the mean absolute error. Alpha is ignored.
+     */
+    public static final ImageMetric ROOT_MEAN_SQUARE_ERROR = new SquareErrorMetric(false);
+
+    /**
+     * Peak signal-to-noise ratio, in dB; infinite when the images are identical.
+     * The difference used by the assertions is the normalised root mean square error.
+     */
+    public static final ImageMetric PEAK_SIGNAL_TO_NOISE_RATIO = new SquareErrorMetric(true);
+
+    /**
+     * Mean absolute error of the Alpha, Red, Green and Blue channels.
+     * The colours are premultiplied by the alpha, so colour differences
+     * of transparent pixels are ignored, and alpha differences are counted.
+     */
+    public static final ImageMetric ALPHA_MEAN_ABSOLUTE_ERROR = new AlphaMeanAbsoluteErrorMetric();
+
+    /**
+     * Default size of the SSIM sliding window, in pixels.
+     */
+    public static final int DEFAULT_SSIM_WINDOW_SIZE = 8;
+
+    private ImageMetrics() {}
+
+    /**
+     * @return The structural similarity metric, with the default window size.
+     * @see #ssim(int)
+     */
+    public static ImageMetric ssim() {
+        return new StructuralSimilarityMetric(DEFAULT_SSIM_WINDOW_SIZE);
+    }
+
+    /**
+     * Mean structural similarity (SSIM) of the luminance of the images,
+     * computed on a square window sliding one pixel at a time.
+     * The value of the metric is the SSIM index, in [-1, 1]; 1 when the images are identical.
+     * The difference used by the assertions is (1 - SSIM) / 2.
+     * @param windowSize The size of the sliding window, in pixels.
+     * @return The structural similarity metric.
+     */
+    public static ImageMetric ssim(int windowSize) {
+        return new StructuralSimilarityMetric(windowSize);
+    }
+
+
+    private static class MeanAbsoluteErrorMetric implements ImageMetric {
+        @Override
+        public String getName() {
+            return "Mean absolute error";
+        }
+
+        @Override
+        public int getRowOverlap() {
+            return 0;
+        }
+
+        @Override
+        public Accumulator createAccumulator(int width, int height, int firstRow) {
+            return new MeanAbsoluteErrorAccumulator(width, height);
+        }
+    }
+
+    private static class MeanAbsoluteErrorAccumulator implements ImageMetric.Accumulator {
+        private final int width;
+        private final long pixelCount;
+        private long sum = 0;
+
+        public MeanAbsoluteErrorAccumulator(int width, int height) {
+            this.width = width;
+            this.pixelCount = (long)width * height;
+        }
+
+        @Override
+        public void addRow(int y, int[] expectedRow, int[] actualRow) {
+            long sum = 0;
+            for (int x=0; x<this.width; x++) {
+                int expectedRGB = expectedRow[x];
+                int actualRGB = actualRow[x];
+                sum += Math.abs(((expectedRGB >> 16) & 0xFF) - ((actualRGB >> 16) & 0xFF));
+                sum += Math.abs(((expectedRGB >> 8) & 0xFF) - ((actualRGB >> 8) & 0xFF));
+                sum += Math.abs((expectedRGB & 0xFF) - (actualRGB & 0xFF));
+            }
+            this.sum += sum;
+        }
+
+        @Override
+        public void merge(ImageMetric.Accumulator other) {
+            this.sum += ((MeanAbsoluteErrorAccumulator)other).sum;
+        }
+
+        @Override
+        public double getValue() {
+            return this.getDifference();
+        }
+
+        @Override
+        public double getDifference() {
+            return ChannelDifference.getDifference(this.sum, this.pixelCount);
+        }
+    }
+
+
+    private static class SquareErrorMetric implements ImageMetric {
+        private final boolean psnr;
+
+        public SquareErrorMetric(boolean psnr) {
+            this.psnr = psnr;
+        }
+
+        @Override
+        public String getName() {
+            return this.psnr ? "Peak signal-to-noise ratio" : "Root mean square error";
+        }
+
+        @Override
+        public int getRowOverlap() {
+            return 0;
+        }
+
+        @Override
+        public Accumulator createAccumulator(int width, int height, int firstRow) {
+            return new SquareErrorAccumulator(width, height, this.psnr);
+        }
+    }
+
+    private static class SquareErrorAccumulator implements ImageMetric.Accumulator {
+        private final int width;
+        private final long pixelCount;
+        private final boolean psnr;
+        // Max: 3 * 255^2 per pixel. Fits in a long for images up to 47 billion pixels.
+        private long sum = 0;
+
+        public SquareErrorAccumulator(int width, int height, boolean psnr) {
+            this.width = width;
+            this.pixelCount = (long)width * height;
+            this.psnr = psnr;
+        }
+
+        @Override
+        public void addRow(int y, int[] expectedRow, int[] actualRow) {
+            long sum = 0;
+            for (int x=0; x<this.width; x++) {
+                int expectedRGB = expectedRow[x];
+                int actualRGB = actualRow[x];
+                int redError = ((expectedRGB >> 16) & 0xFF) - ((actualRGB >> 16) & 0xFF);
+                int greenError = ((expectedRGB >> 8) & 0xFF) - ((actualRGB >> 8) & 0xFF);
+                int blueError = (expectedRGB & 0xFF) - (actualRGB & 0xFF);
+                sum += redError * redError + greenError * greenError + blueError * blueError;
+            }
+            this.sum += sum;
+        }
+
+        @Override
+        public void merge(ImageMetric.Accumulator other) {
+            this.sum += ((SquareErrorAccumulator)other).sum;
+        }
+
+        @Override
+        public double getValue() {
+            if (this.psnr) {
+                // 10 * log10(MAX^2 / MSE)
+                return this.sum == 0 ? Double.POSITIVE_INFINITY :
+                        10 * Math.log10(255.0 * 255.0 * 3 * this.pixelCount / this.sum);
+            }
+            return this.getDifference();
+        }
+
+        @Override
+        public double getDifference() {
+            return Math.sqrt(this.sum / 3.0 / this.pixelCount) / 255.0;
+        }
+    }
+
+
+    private static class AlphaMeanAbsoluteErrorMetric implements ImageMetric {
+        @Override
+        public String getName() {
+            return "Alpha-aware mean absolute error";
+        }
+
+        @Override
+        public int getRowOverlap() {
+            return 0;
+        }
+
+        @Override
+        public Accumulator createAccumulator(int width, int height, int firstRow) {
+            return new AlphaMeanAbsoluteErrorAccumulator(width, height);
+        }
+    }
+
+    private static class AlphaMeanAbsoluteErrorAccumulator implements ImageMetric.Accumulator {
+        private final int width;
+        private final long pixelCount;
+        private long sum = 0;
+
+        public AlphaMeanAbsoluteErrorAccumulator(int width, int height) {
+            this.width = width;
+            this.pixelCount = (long)width * height;
+        }
+
+        @Override
+        public void addRow(int y, int[] expectedRow, int[] actualRow) {
+            long sum = 0;
+            for (int x=0; x<this.width; x++) {
+                int expectedARGB = expectedRow[x];
+                int actualARGB = actualRow[x];
+                int expectedAlpha = (expectedARGB >>> 24);
+                int actualAlpha = (actualARGB >>> 24);
+
+                sum += Math.abs(expectedAlpha - actualAlpha);
+                sum += Math.abs(premultiply((expectedARGB >> 16) & 0xFF, expectedAlpha) - premultiply((actualARGB >> 16) & 0xFF, actualAlpha));
+                sum += Math.abs(premultiply((expectedARGB >> 8) & 0xFF, expectedAlpha) - premultiply((actualARGB >> 8) & 0xFF, actualAlpha));
+                sum += Math.abs(premultiply(expectedARGB & 0xFF, expectedAlpha) - premultiply(actualARGB & 0xFF, actualAlpha));
+            }
+            this.sum += sum;
+        }
+
+        private static int premultiply(int colour, int alpha) {
+            return (colour * alpha + 127) / 255;
+        }
+
+        @Override
+        public void merge(ImageMetric.Accumulator other) {
+            this.sum += ((AlphaMeanAbsoluteErrorAccumulator)other).sum;
+        }
+
+        @Override
+        public double getValue() {
+            return this.getDifference();
+        }
+
+        @Override
+        public double getDifference() {
+            // Each pixels contains 4 channels (Alpha, Red, Green, Blue), each with 256 possible values [0, 255]
+            return this.sum / 4.0 / this.pixelCount / 255.0;
+        }
+    }
+
+
+    private static class StructuralSimilarityMetric implements ImageMetric {
+        private final int windowSize;
+
+        public StructuralSimilarityMetric(int windowSize) {
+            if (windowSize <= 0) {
+                throw new IllegalArgumentException(String.format("Invalid SSIM window size: %d", windowSize));
+            }
+            this.windowSize = windowSize;
+        }
+
+        @Override
+        public String getName() {
+            return String.format("Structural similarity (%dpx window)", this.windowSize);
+        }
+
+        @Override
+        public int getRowOverlap() {
+            return this.windowSize - 1;
+        }
+
+        @Override
+        public Accumulator createAccumulator(int width, int height, int firstRow) {
+            // Images smaller than the window are compared as a single window
+            int windowSize = Math.min(this.windowSize, Math.min(width, height));
+            return new StructuralSimilarityAccumulator(width, windowSize, firstRow);
+        }
+    }
+
+    /**
+     * Sliding window SSIM.
+     * The sums of the window are maintained incrementally: vertically with sums per column,
+     * over the last windowSize rows, and horizontally with a running sum of the column sums.
+     * Each pixel is added and removed once, with no allocation after the accumulator is created.
+     */
+    private static class StructuralSimilarityAccumulator implements ImageMetric.Accumulator {
+        // Constants used to stabilise the division with weak denominators
+        private static final double C1 = (0.01 * 255) * (0.01 * 255);
+        private static final double C2 = (0.03 * 255) * (0.03 * 255);
+
+        private final int width;
+        private final int windowSize;
+        private final int firstRow;
+
+        // Luminance of the last windowSize rows (ring buffer)
+        private final int[][] expectedLuma;
+        private final int[][] actualLuma;
+
+        // Sums of the last windowSize rows, for each column
+        private final long[] sumX, sumY, sumXX, sumYY, sumXY;
+
+        private int rowCount = 0;
+        private double ssimSum = 0;
+        private long windowCount = 0;
+
+        public StructuralSimilarityAccumulator(int width, int windowSize, int firstRow) {
+            this.width = width;
+            this.windowSize = windowSize;
+            this.firstRow = firstRow;
+
+            this.expectedLuma = new int[windowSize][width];
+            this.actualLuma = new int[windowSize][width];
+
+            this.sumX = new long[width];
+            this.sumY = new long[width];
+            this.sumXX = new long[width];
+            this.sumYY = new long[width];
+            this.sumXY = new long[width];
+        }
+
+        @Override
+        public void addRow(int y, int[] expectedRow, int[] actualRow) {
+            int ringIndex = this.rowCount % this.windowSize;
+            int[] expectedLumaRow = this.expectedLuma[ringIndex];
+            int[] actualLumaRow = this.actualLuma[ringIndex];
+            boolean full = this.rowCount >= this.windowSize;
+
+            for (int x=0; x<this.width; x++) {
+                // Remove the row leaving the window
+                if (full) {
+                    int oldX = expectedLumaRow[x], oldY = actualLumaRow[x];
+                    this.sumX[x] -= oldX;
+                    this.sumY[x] -= oldY;
+                    this.sumXX[x] -= oldX * oldX;
+                    this.sumYY[x] -= oldY * oldY;
+                    this.sumXY[x] -= oldX * oldY;
+                }
+
+                int lumaX = luma(expectedRow[x]), lumaY = luma(actualRow[x]);
+                expectedLumaRow[x] = lumaX;
+                actualLumaRow[x] = lumaY;
+                this.sumX[x] += lumaX;
+                this.sumY[x] += lumaY;
+                this.sumXX[x] += lumaX * lumaX;
+                this.sumYY[x] += lumaY * lumaY;
+                this.sumXY[x] += lumaX * lumaY;
+            }
+            this.rowCount++;
+
+            // The window ending at this row is complete, and belongs to this band
+            if (this.rowCount >= this.windowSize && y >= this.firstRow) {
+                this.addWindows();
+            }
+        }
+
+        /**
+         * Slide the window horizontally over the column sums.
+         */
+        private void addWindows() {
+            int n = this.windowSize;
+            double windowPixels = (double)n * n;
+            long x = 0, y = 0, xx = 0, yy = 0, xy = 0;
+
+            for (int column=0; column<this.width; column++) {
+                x += this.sumX[column];
+                y += this.sumY[column];
+                xx += this.sumXX[column];
+                yy += this.sumYY[column];
+                xy += this.sumXY[column];
+
+                if (column >= n) {
+                    int leaving = column - n;
+                    x -= this.sumX[leaving];
+                    y -= this.sumY[leaving];
+                    xx -= this.sumXX[leaving];
+                    yy -= this.sumYY[leaving];
+                    xy -= this.sumXY[leaving];
+                }
+
+                if (column >= n - 1) {
+                    double meanX = x / windowPixels;
+                    double meanY = y / windowPixels;
+                    double varianceX = xx / windowPixels - meanX * meanX;
+                    double varianceY = yy / windowPixels - meanY * meanY;
+                    double covariance = xy / windowPixels - meanX * meanY;
+
+                    this.ssimSum += ((2 * meanX * meanY + C1) * (2 * covariance + C2)) /
+                            ((meanX * meanX + meanY * meanY + C1) * (varianceX + varianceY + C2));
+                    this.windowCount++;
+                }
+            }
+        }
+
+        /**
+         * ITU-R BT.601 luma, integer approximation.
+         */
+        private static int luma(int rgb) {
+            return (77 * ((rgb >> 16) & 0xFF) + 150 * ((rgb >> 8) & 0xFF) + 29 * (rgb & 0xFF)) >> 8;
+        }
+
+        @Override
+        public void merge(ImageMetric.Accumulator other) {
+            StructuralSimilarityAccumulator otherAccumulator = (StructuralSimilarityAccumulator)other;
+            this.ssimSum += otherAccumulator.ssimSum;
+            this.windowCount += otherAccumulator.windowCount;
+        }
+
+        @Override
+        public double getValue() {
+            return this.windowCount == 0 ? 1 : this.ssimSum / this.windowCount;
+        }
+
+        @Override
+        public double getDifference() {
+            return Math.max(0, Math.min(1, (1 - this.getValue()) / 2));
+        }
+    }
+}
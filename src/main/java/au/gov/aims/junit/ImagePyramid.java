@@ -0,0 +1,259 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Multi-resolution summary of an image, used to bound the difference between two images
+ * without comparing their pixels.
+ *
+ * <p>The image is split into square blocks. For each block and each colour channel
+ * (Red, Green, Blue), the summary contains the sum, the minimum and the maximum of the values.
+ * The first level has blocks of {@link #BASE_BLOCK_SIZE} pixels (1/8 scale),
+ * each following level halves the resolution, up to a single block.</p>
+ *
+ * <p>For two images, the sum of the absolute differences of the pixels of a block is bounded by:</p>
+ * <ul>
+ *     <li>Lower bound: |expected sum - actual sum| (triangle inequality)</li>
+ *     <li>Upper bound: the smallest of pixel count * the largest possible pixel difference
+ *         (from the minimums and maximums), expected sum + actual sum,
+ *         and 2 * 255 * pixel count - expected sum - actual sum.</li>
+ * </ul>
+ * <p>The bounds are exact integers, so decisions taken from them are exact.</p>
+ */
+class ImagePyramid {
+    /**
+     * Size of the blocks of the first level, in pixels.
+     */
+    public static final int BASE_BLOCK_SIZE = 8;
+
+    private final int width;
+    private final int height;
+    // Finest level first
+    private final Level[] levels;
+
+    ImagePyramid(int width, int height, Level[] levels) {
+        this.width = width;
+        this.height = height;
+        this.levels = levels;
+    }
+
+    /**
+     * Summarise an image.
+     * @param pixelReader The image pixels.
+     * @param forkJoinPool The pool used to summarise bands of rows concurrently,
+     *     or null to summarise the image on the calling thread.
+     * @return The summary of the image.
+     */
+    public static ImagePyramid create(PixelReader pixelReader, ForkJoinPool forkJoinPool) {
+        int width = pixelReader.getWidth(),
+            height = pixelReader.getHeight();
+
+        Level baseLevel = new Level(BASE_BLOCK_SIZE, width, height);
+        if (forkJoinPool == null || pixelReader.isSequential()) {
+            for (int row=0; row<baseLevel.rows; row++) {
+                baseLevel.summariseRow(pixelReader, row);
+            }
+        } else {
+            // Each task writes its own blocks
+            forkJoinPool.submit(() -> IntStream.range(0, baseLevel.rows).parallel()
+                    .forEach(row -> baseLevel.summariseRow(pixelReader, row))).join();
+        }
+
+        return create(baseLevel);
+    }
+
+    /**
+     * Build the coarser levels of a pyramid from its finest level.
+     * @param baseLevel The finest level, with blocks of {@link #BASE_BLOCK_SIZE} pixels.
+     * @return The pyramid.
+     */
+    static ImagePyramid create(Level baseLevel) {
+        List<Level> levels = new ArrayList<Level>();
+        levels.add(baseLevel);
+        Level level = baseLevel;
+        while (level.columns > 1 || level.rows > 1) {
+            level = level.createParentLevel();
+            levels.add(level);
+        }
+
+        return new ImagePyramid(baseLevel.width, baseLevel.height, levels.toArray(new Level[0]));
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public int getLevelCount() {
+        return this.levels.length;
+    }
+
+    /**
+     * @param level The level index, 0 for the finest level.
+     */
+    public Level getLevel(int level) {
+        return this.levels[level];
+    }
+
+    /**
+     * @return The number of bytes used by the summary.
+     */
+    public long getSize() {
+        long size = 0;
+        for (Level level : this.levels) {
+            size += level.sums.length * (8L + 1 + 1);
+        }
+        return size;
+    }
+
+
+    /**
+     * One level of the pyramid.
+     * The values of a block are stored at [block * 3 + channel], channels are Red, Green, Blue.
+     */
+    static class Level {
+        final int blockSize;
+        final int width;
+        final int height;
+        final int columns;
+        final int rows;
+
+        final long[] sums;
+        // Unsigned values
+        final byte[] minimums;
+        final byte[] maximums;
+
+        Level(int blockSize, int width, int height) {
+            this.blockSize = blockSize;
+            this.width = width;
+            this.height = height;
+            this.columns = Math.max(1, (width + blockSize - 1) / blockSize);
+            this.rows = Math.max(1, (height + blockSize - 1) / blockSize);
+
+            int valueCount = this.columns * this.rows * 3;
+            this.sums = new long[valueCount];
+            this.minimums = new byte[valueCount];
+            this.maximums = new byte[valueCount];
+        }
+
+        public int getBlockCount() {
+            return this.columns * this.rows;
+        }
+
+        /**
+         * @return The number of pixels of the block. Blocks on the right and bottom edges may be partial.
+         */
+        public long getPixelCount(int block) {
+            int column = block % this.columns, row = block / this.columns;
+            return (long)Math.min(this.blockSize, this.width - column * this.blockSize) *
+                    Math.min(this.blockSize, this.height - row * this.blockSize);
+        }
+
+        /**
+         * @return The lowest possible sum of the absolute channel differences of the block.
+         */
+        public long getLowerBound(Level other, int block) {
+            long bound = 0;
+            for (int index=block*3; index<block*3+3; index++) {
+                bound += Math.abs(this.sums[index] - other.sums[index]);
+            }
+            return bound;
+        }
+
+        /**
+         * @return The highest possible sum of the absolute channel differences of the block.
+         */
+        public long getUpperBound(Level other, int block) {
+            long pixelCount = this.getPixelCount(block);
+            long bound = 0;
+            for (int index=block*3; index<block*3+3; index++) {
+                int largestDifference = Math.max(
+                        (this.maximums[index] & 0xFF) - (other.minimums[index] & 0xFF),
+                        (other.maximums[index] & 0xFF) - (this.minimums[index] & 0xFF));
+                long sum = this.sums[index] + other.sums[index];
+                bound += Math.min(pixelCount * largestDifference, Math.min(sum, 2 * 255 * pixelCount - sum));
+            }
+            return bound;
+        }
+
+        /**
+         * Summarise the pixels of a row of blocks.
+         */
+        private void summariseRow(PixelReader pixelReader, int row) {
+            int[] argbRow = pixelReader.createRowBuffer();
+            int firstBlockIndex = row * this.columns * 3;
+            for (int index=firstBlockIndex; index<firstBlockIndex + this.columns * 3; index++) {
+                this.minimums[index] = (byte)0xFF;
+            }
+
+            int endY = Math.min(this.height, (row + 1) * this.blockSize);
+            for (int y=row*this.blockSize; y<endY; y++) {
+                pixelReader.readRow(y, argbRow);
+                for (int x=0; x<this.width; x++) {
+                    int rgb = argbRow[x];
+                    int index = firstBlockIndex + (x / this.blockSize) * 3;
+                    this.add(index, (rgb >> 16) & 0xFF);
+                    this.add(index + 1, (rgb >> 8) & 0xFF);
+                    this.add(index + 2, rgb & 0xFF);
+                }
+            }
+        }
+
+        private void add(int index, int value) {
+            this.sums[index] += value;
+            if (value < (this.minimums[index] & 0xFF)) { this.minimums[index] = (byte)value; }
+            if (value > (this.maximums[index] & 0xFF)) { this.maximums[index] = (byte)value; }
+        }
+
+        /**
+         * @return The level with blocks twice as large, merging 2 x 2 blocks of this level.
+         */
+        private Level createParentLevel() {
+            Level parent = new Level(this.blockSize * 2, this.width, this.height);
+            for (int index=0; index<parent.minimums.length; index++) {
+                parent.minimums[index] = (byte)0xFF;
+            }
+
+            for (int row=0; row<this.rows; row++) {
+                for (int column=0; column<this.columns; column++) {
+                    int index = (row * this.columns + column) * 3;
+                    int parentIndex = ((row / 2) * parent.columns + column / 2) * 3;
+                    for (int channel=0; channel<3; channel++) {
+                        parent.sums[parentIndex + channel] += this.sums[index + channel];
+                        if ((this.minimums[index + channel] & 0xFF) < (parent.minimums[parentIndex + channel] & 0xFF)) {
+                            parent.minimums[parentIndex + channel] = this.minimums[index + channel];
+                        }
+                        if ((this.maximums[index + channel] & 0xFF) > (parent.maximums[parentIndex + channel] & 0xFF)) {
+                            parent.maximums[parentIndex + channel] = this.maximums[index + channel];
+                        }
+                    }
+                }
+            }
+            return parent;
+        }
+    }
+}
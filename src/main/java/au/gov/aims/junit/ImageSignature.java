@@ -0,0 +1,110 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Data precomputed from a reference image file, kept in a {@link SignatureStore}.
+ * It's enough to confirm that an image is identical to the reference image,
+ * or to reject an image which is too different, without decoding the reference image.
+ */
+public class ImageSignature {
+    private final long fileLastModified;
+    private final long fileLength;
+    private final byte[] fileDigest;
+    private final byte[] rasterDigest;
+    private final ImagePyramid pyramid;
+
+    ImageSignature(long fileLastModified, long fileLength, byte[] fileDigest, byte[] rasterDigest, ImagePyramid pyramid) {
+        this.fileLastModified = fileLastModified;
+        this.fileLength = fileLength;
+        this.fileDigest = fileDigest;
+        this.rasterDigest = rasterDigest;
+        this.pyramid = pyramid;
+    }
+
+    /**
+     * @param file The image file, already decoded.
+     * @param pixelReader The pixels of the image file.
+     * @return The signature of the image file.
+     * @throws IOException If the file can't be read.
+     */
+    static ImageSignature create(File file, PixelReader pixelReader) throws IOException {
+        // Read the file attributes before the digest: if the file changes in between, the signature is stale
+        long lastModified = file.lastModified();
+        long length = file.length();
+        return new ImageSignature(lastModified, length, ContentDigest.digest(file),
+                pixelReader.getRasterDigest(), pixelReader.getPyramid(null));
+    }
+
+    public long getFileLastModified() {
+        return this.fileLastModified;
+    }
+
+    public long getFileLength() {
+        return this.fileLength;
+    }
+
+    /**
+     * @return The digest of the image file.
+     * @see ContentDigest#digest(File)
+     */
+    public byte[] getFileDigest() {
+        return this.fileDigest.clone();
+    }
+
+    /**
+     * @return The digest of the Red, Green and Blue values of the decoded pixels.
+     */
+    public byte[] getRasterDigest() {
+        return this.rasterDigest.clone();
+    }
+
+    public int getWidth() {
+        return this.pyramid.getWidth();
+    }
+
+    public int getHeight() {
+        return this.pyramid.getHeight();
+    }
+
+    ImagePyramid getPyramid() {
+        return this.pyramid;
+    }
+
+    /**
+     * @return A low resolution preview of the image, 1 pixel per {@link ImagePyramid#BASE_BLOCK_SIZE} pixels block,
+     *     computed from the average colour of the blocks.
+     */
+    public BufferedImage getPreview() {
+        ImagePyramid.Level level = this.pyramid.getLevel(0);
+        BufferedImage preview = new BufferedImage(level.columns, level.rows, BufferedImage.TYPE_INT_RGB);
+        for (int block=0; block<level.getBlockCount(); block++) {
+            long pixelCount = level.getPixelCount(block);
+            int red = (int)(level.sums[block * 3] / pixelCount);
+            int green = (int)(level.sums[block * 3 + 1] / pixelCount);
+            int blue = (int)(level.sums[block * 3 + 2] / pixelCount);
+            preview.setRGB(block % level.columns, block / level.columns, red << 16 | green << 8 | blue);
+        }
+        return preview;
+    }
+}
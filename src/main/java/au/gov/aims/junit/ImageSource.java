@@ -0,0 +1,358 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * One of the image given to an assertion: an image file, encoded bytes,
+ * or an image which is already decoded.
+ * The source is only decoded when its pixels are requested.
+ */
+abstract class ImageSource {
+    public static final String EXPECTED = "Expected";
+    public static final String ACTUAL = "Actual";
+
+    // "Expected" or "Actual", used in error messages
+    protected final String role;
+
+    protected ImageSource(String role) {
+        this.role = role;
+    }
+
+    public static ImageSource of(String role, File file) {
+        return new FileImageSource(role, file);
+    }
+
+    public static ImageSource of(String role, Path path) {
+        // Files on the default file system are handled as java.io.File
+        if (path != null && path.getFileSystem() == FileSystems.getDefault()) {
+            return new FileImageSource(role, path.toFile());
+        }
+        return new PathImageSource(role, path);
+    }
+
+    public static ImageSource of(String role, byte[] bytes) {
+        return new BytesImageSource(role, bytes);
+    }
+
+    public static ImageSource of(String role, InputStream inputStream) {
+        return new InputStreamImageSource(role, inputStream);
+    }
+
+    public static ImageSource of(String role, BufferedImage image) {
+        return new BufferedImageSource(role, image);
+    }
+
+    public static ImageSource of(String role, Raster raster) {
+        return new RasterImageSource(role, raster);
+    }
+
+    /**
+     * Decode the source, if needed.
+     * @param imageCache Cache of decoded images, or null to always decode the source.
+     *     Only used by the sources which can be identified between assertions (files).
+     * @param stripHeight Number of rows to decode at once, or 0 to decode the whole image.
+     *     Only used by the sources which can be decoded one region at a time (files).
+     * @return A reader for the source pixels. It must be closed once the pixels are read.
+     * @throws IOException If the source is null, not readable or not an image.
+     */
+    public abstract PixelReader getPixelReader(ImageCache imageCache, int stripHeight) throws IOException;
+
+    /**
+     * Cheap check done before decoding the images.
+     * @param other The image compared with this one.
+     * @return True if both sources are known to contain the exact same image.
+     *     False if they are different, or if it can't be known without decoding them.
+     * @throws IOException If one of the source is invalid.
+     */
+    public boolean isSameContent(ImageSource other) throws IOException {
+        return false;
+    }
+
+    /**
+     * @return The image file, or null if the source is not a file.
+     */
+    public File getFile() {
+        return null;
+    }
+
+    /**
+     * @return The kind of source, used in error messages: "file" or "source".
+     */
+    public String getKind() {
+        return "source";
+    }
+
+    /**
+     * Cheap check that an image reader accepts the input, reading only its header.
+     * Used before considering identical inputs as identical images,
+     * so comparing an invalid image with itself still fails.
+     * @param input A file, or an input stream.
+     * @return True if an image reader can decode the input.
+     */
+    protected static boolean isImage(Object input) throws IOException {
+        try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(input)) {
+            return imageInputStream != null && ImageIO.getImageReaders(imageInputStream).hasNext();
+        }
+    }
+
+    protected BufferedImage checkImage(BufferedImage image) throws IOException {
+        if (image == null) {
+            throw new IOException(String.format("%s image is not an image. %s", this.role, this));
+        }
+        return image;
+    }
+
+
+    private static class FileImageSource extends ImageSource {
+        private final File file;
+
+        public FileImageSource(String role, File file) {
+            super(role);
+            this.file = file;
+        }
+
+        @Override
+        public File getFile() {
+            return this.file;
+        }
+
+        @Override
+        public String getKind() {
+            return "file";
+        }
+
+        private void validate() throws IOException {
+            if (this.file == null) {
+                throw new IOException(String.format("%s image file must not be null.", this.role));
+            }
+            if (!this.file.isFile() || !this.file.canRead()) {
+                throw new IOException(String.format("%s image file is invalid. %s", this.role, this.file));
+            }
+        }
+
+        @Override
+        public PixelReader getPixelReader(ImageCache imageCache, int stripHeight) throws IOException {
+            this.validate();
+
+            PixelReader pixelReader;
+            if (stripHeight > 0) {
+                // Streaming mode: the image is too large to be cached
+                pixelReader = StripPixelReader.open(this.file, stripHeight);
+            } else if (imageCache == null) {
+                BufferedImage image = ImageIO.read(this.file);
+                pixelReader = image == null ? null : PixelReader.create(image);
+            } else {
+                pixelReader = imageCache.getPixelReader(this.file);
+            }
+
+            if (pixelReader == null) {
+                throw new IOException(String.format("%s image file is not an image. %s", this.role, this.file));
+            }
+            return pixelReader;
+        }
+
+        /**
+         * The files are identical if they are the same file,
+         * or if they have the same size and the same digest,
+         * and if the file is an image (otherwise, it must fail to decode).
+         */
+        @Override
+        public boolean isSameContent(ImageSource other) throws IOException {
+            if (!(other instanceof FileImageSource)) {
+                return false;
+            }
+            FileImageSource otherFileSource = (FileImageSource)other;
+            this.validate();
+            otherFileSource.validate();
+
+            if (!this.file.getCanonicalFile().equals(otherFileSource.file.getCanonicalFile())) {
+                if (this.file.length() != otherFileSource.file.length() ||
+                        !Arrays.equals(ContentDigest.digest(this.file), ContentDigest.digest(otherFileSource.file))) {
+                    return false;
+                }
+            }
+            return isImage(this.file);
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(this.file);
+        }
+    }
+
+    private static class PathImageSource extends ImageSource {
+        private final Path path;
+
+        public PathImageSource(String role, Path path) {
+            super(role);
+            this.path = path;
+        }
+
+        @Override
+        public String getKind() {
+            return "file";
+        }
+
+        @Override
+        public PixelReader getPixelReader(ImageCache imageCache, int stripHeight) throws IOException {
+            if (this.path == null) {
+                throw new IOException(String.format("%s image file must not be null.", this.role));
+            }
+            if (!Files.isRegularFile(this.path) || !Files.isReadable(this.path)) {
+                throw new IOException(String.format("%s image file is invalid. %s", this.role, this.path));
+            }
+
+            try (InputStream inputStream = Files.newInputStream(this.path)) {
+                BufferedImage image = ImageIO.read(inputStream);
+                if (image == null) {
+                    throw new IOException(String.format("%s image file is not an image. %s", this.role, this.path));
+                }
+                return PixelReader.create(image);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return this.path == null ? "null" : this.path.toUri().toString();
+        }
+    }
+
+    private static class BytesImageSource extends ImageSource {
+        private final byte[] bytes;
+
+        public BytesImageSource(String role, byte[] bytes) {
+            super(role);
+            this.bytes = bytes;
+        }
+
+        @Override
+        public PixelReader getPixelReader(ImageCache imageCache, int stripHeight) throws IOException {
+            if (this.bytes == null) {
+                throw new IOException(String.format("%s image bytes must not be null.", this.role));
+            }
+            return PixelReader.create(this.checkImage(ImageIO.read(new ByteArrayInputStream(this.bytes))));
+        }
+
+        @Override
+        public boolean isSameContent(ImageSource other) throws IOException {
+            return other instanceof BytesImageSource && this.bytes != null &&
+                    Arrays.equals(this.bytes, ((BytesImageSource)other).bytes) &&
+                    isImage(new ByteArrayInputStream(this.bytes));
+        }
+
+        @Override
+        public String toString() {
+            return this.bytes == null ? "null" : String.format("byte[%d]", this.bytes.length);
+        }
+    }
+
+    /**
+     * NOTE: The stream is consumed but not closed. It's the responsibility of the caller.
+     */
+    private static class InputStreamImageSource extends ImageSource {
+        private final InputStream inputStream;
+
+        public InputStreamImageSource(String role, InputStream inputStream) {
+            super(role);
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        public PixelReader getPixelReader(ImageCache imageCache, int stripHeight) throws IOException {
+            if (this.inputStream == null) {
+                throw new IOException(String.format("%s image stream must not be null.", this.role));
+            }
+            return PixelReader.create(this.checkImage(ImageIO.read(this.inputStream)));
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(this.inputStream);
+        }
+    }
+
+    private static class BufferedImageSource extends ImageSource {
+        private final BufferedImage image;
+
+        public BufferedImageSource(String role, BufferedImage image) {
+            super(role);
+            this.image = image;
+        }
+
+        @Override
+        public PixelReader getPixelReader(ImageCache imageCache, int stripHeight) throws IOException {
+            if (this.image == null) {
+                throw new IOException(String.format("%s image must not be null.", this.role));
+            }
+            return PixelReader.create(this.image);
+        }
+
+        @Override
+        public boolean isSameContent(ImageSource other) {
+            return other instanceof BufferedImageSource && this.image != null &&
+                    this.image == ((BufferedImageSource)other).image;
+        }
+
+        @Override
+        public String toString() {
+            return this.image == null ? "null" :
+                    String.format("BufferedImage[%dpx x %dpx, type %d]", this.image.getWidth(), this.image.getHeight(), this.image.getType());
+        }
+    }
+
+    private static class RasterImageSource extends ImageSource {
+        private final Raster raster;
+
+        public RasterImageSource(String role, Raster raster) {
+            super(role);
+            this.raster = raster;
+        }
+
+        @Override
+        public PixelReader getPixelReader(ImageCache imageCache, int stripHeight) throws IOException {
+            if (this.raster == null) {
+                throw new IOException(String.format("%s raster must not be null.", this.role));
+            }
+            try {
+                return PixelReader.create(this.raster);
+            } catch(IllegalArgumentException ex) {
+                throw new IOException(String.format("%s raster is not supported. %s", this.role, this), ex);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return this.raster == null ? "null" :
+                    String.format("Raster[%dpx x %dpx, %d bands]", this.raster.getWidth(), this.raster.getHeight(), this.raster.getNumBands());
+        }
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Read the pixels of an image, one row at a time, as packed ARGB int values
+ * (the same values as returned by {@link BufferedImage#getRGB(int, int)}).
+ *
+ * <p>The common image types are read directly from the image {@link DataBuffer},
+ * without going through the {@link ColorModel}. Other images fall back
+ * to {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}.</p>
+ *
+ * <p>Readers do not hold any state between calls to {@link #readRow(int, int[])},
+ * they can be shared between threads as long as each thread uses its own row buffer.
+ * The exception are the {@link #isSequential() sequential} readers, which decode the image
+ * while it's read. They must be {@link #close() closed} once the image has been read.</p>
+ */
+abstract class PixelReader implements Closeable {
+    protected final int width;
+    protected final int height;
+
+    // The image read, or null for a raster without colour model
+    private final BufferedImage image;
+
+    // Computed when first requested. Kept with the reader since cached images are read many times.
+    private volatile byte[] rasterDigest = null;
+    private volatile ImagePyramid pyramid = null;
+
+    protected PixelReader(BufferedImage image) {
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.image = image;
+    }
+
+    protected PixelReader(Raster raster) {
+        this(raster.getWidth(), raster.getHeight());
+    }
+
+    protected PixelReader(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.image = null;
+    }
+
+    /**
+     * Create the fastest reader available for the given image.
+     * @param image The image to read.
+     * @return A reader returning the same values as {@link BufferedImage#getRGB(int, int)}.
+     */
+    public static PixelReader create(BufferedImage image) {
+        Raster raster = image.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+
+        if (dataBuffer.getNumBanks() == 1) {
+            switch (image.getType()) {
+                case BufferedImage.TYPE_INT_ARGB:
+                case BufferedImage.TYPE_INT_RGB:
+                    if (sampleModel instanceof SinglePixelPackedSampleModel && dataBuffer instanceof DataBufferInt) {
+                        return new PackedIntPixelReader(image, image.getType() == BufferedImage.TYPE_INT_RGB);
+                    }
+                    break;
+
+                case BufferedImage.TYPE_3BYTE_BGR:
+                case BufferedImage.TYPE_4BYTE_ABGR:
+                    if (sampleModel instanceof PixelInterleavedSampleModel && dataBuffer instanceof DataBufferByte) {
+                        return new InterleavedBytePixelReader(image);
+                    }
+                    break;
+
+                case BufferedImage.TYPE_BYTE_GRAY:
+                    if (sampleModel instanceof PixelInterleavedSampleModel && dataBuffer instanceof DataBufferByte) {
+                        return new GrayBytePixelReader(image);
+                    }
+                    break;
+            }
+        }
+
+        return new GenericPixelReader(image);
+    }
+
+    /**
+     * Create a reader for a raster which is not associated with a colour model.
+     * The bands are interpreted as Grey, Grey + Alpha, RGB or RGBA,
+     * according to the number of bands. Samples larger than 8 bits are scaled down to 8 bits,
+     * samples smaller than 8 bits are scaled up to 8 bits (a 1 bit sample is read as 0 or 255).
+     * @param raster The raster to read.
+     * @return A reader returning the raster samples as packed ARGB int values.
+     */
+    public static PixelReader create(Raster raster) {
+        return new RasterPixelReader(raster);
+    }
+
+    /**
+     * @return The image read, or null if the reader reads a raster.
+     */
+    public BufferedImage getImage() {
+        return this.image;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * @return The digest of the Red, Green and Blue values of the pixels.
+     * @see ContentDigest#digest(PixelReader)
+     */
+    public byte[] getRasterDigest() {
+        byte[] digest = this.rasterDigest;
+        if (digest == null) {
+            digest = ContentDigest.digest(this);
+            this.rasterDigest = digest;
+        }
+        return digest;
+    }
+
+    /**
+     * @param forkJoinPool The pool used to compute the pyramid concurrently, or null.
+     * @return The multi-resolution summary of the pixels.
+     * @see ImagePyramid#create(PixelReader, ForkJoinPool)
+     */
+    public ImagePyramid getPyramid(ForkJoinPool forkJoinPool) {
+        ImagePyramid pyramid = this.pyramid;
+        if (pyramid == null) {
+            pyramid = ImagePyramid.create(this, forkJoinPool);
+            this.pyramid = pyramid;
+        }
+        return pyramid;
+    }
+
+    /**
+     * @return The memory used by the data computed from the pixels and kept with the reader
+     *     (raster digest and pyramid), in bytes. 0 until they are computed.
+     */
+    long getDerivedDataSize() {
+        byte[] digest = this.rasterDigest;
+        ImagePyramid pyramid = this.pyramid;
+        return (digest == null ? 0 : digest.length) + (pyramid == null ? 0 : pyramid.getSize());
+    }
+
+    /**
+     * @return True if the reader can only be used by one thread at a time,
+     *     preferably reading the rows in order.
+     */
+    public boolean isSequential() {
+        return false;
+    }
+
+    /**
+     * Release the resources used to decode the image, if any.
+     */
+    @Override
+    public void close() throws IOException {
+        // Nothing to release by default
+    }
+
+    /**
+     * @return A new buffer large enough to be used with {@link #readRow(int, int[])}.
+     */
+    public int[] createRowBuffer() {
+        return new int[this.width];
+    }
+
+    /**
+     * Read a row of pixels.
+     * @param y The row index, in [0, height[.
+     * @param argb The destination buffer, created with {@link #createRowBuffer()}.
+     *     The pixels are written in the first {@code width} elements.
+     */
+    public abstract void readRow(int y, int[] argb);
+
+
+    /**
+     * Offset of the pixel (0, y) in the data buffer bank,
+     * taking into account sub-images (images sharing the data buffer of a parent image).
+     */
+    private static int getRowOffset(Raster raster, int y, int scanlineStride, int pixelStride) {
+        int sampleX = -raster.getSampleModelTranslateX();
+        int sampleY = y - raster.getSampleModelTranslateY();
+        return raster.getDataBuffer().getOffset() + sampleY * scanlineStride + sampleX * pixelStride;
+    }
+
+
+    /**
+     * TYPE_INT_ARGB and TYPE_INT_RGB: the data buffer already contains the packed values.
+     */
+    private static class PackedIntPixelReader extends PixelReader {
+        private final Raster raster;
+        private final int[] data;
+        private final int scanlineStride;
+        private final boolean opaque;
+
+        public PackedIntPixelReader(BufferedImage image, boolean opaque) {
+            super(image);
+            this.raster = image.getRaster();
+            this.data = ((DataBufferInt)this.raster.getDataBuffer()).getData();
+            this.scanlineStride = ((SinglePixelPackedSampleModel)this.raster.getSampleModel()).getScanlineStride();
+            this.opaque = opaque;
+        }
+
+        @Override
+        public void readRow(int y, int[] argb) {
+            int offset = getRowOffset(this.raster, y, this.scanlineStride, 1);
+            if (this.opaque) {
+                for (int x=0; x<this.width; x++) {
+                    argb[x] = 0xFF000000 | this.data[offset + x];
+                }
+            } else {
+                System.arraycopy(this.data, offset, argb, 0, this.width);
+            }
+        }
+    }
+
+    /**
+     * TYPE_3BYTE_BGR and TYPE_4BYTE_ABGR: one byte per channel, interleaved.
+     * The band offsets gives the position of the Red, Green, Blue (and Alpha) bytes within a pixel.
+     */
+    private static class InterleavedBytePixelReader extends PixelReader {
+        private final Raster raster;
+        private final byte[] data;
+        private final int scanlineStride;
+        private final int pixelStride;
+        private final int redOffset, greenOffset, blueOffset, alphaOffset;
+
+        public InterleavedBytePixelReader(BufferedImage image) {
+            super(image);
+            this.raster = image.getRaster();
+            this.data = ((DataBufferByte)this.raster.getDataBuffer()).getData();
+
+            PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel)this.raster.getSampleModel();
+            this.scanlineStride = sampleModel.getScanlineStride();
+            this.pixelStride = sampleModel.getPixelStride();
+
+            int[] bandOffsets = sampleModel.getBandOffsets();
+            this.redOffset = bandOffsets[0];
+            this.greenOffset = bandOffsets[1];
+            this.blueOffset = bandOffsets[2];
+            this.alphaOffset = bandOffsets.length > 3 ? bandOffsets[3] : -1;
+        }
+
+        @Override
+        public void readRow(int y, int[] argb) {
+            int offset = getRowOffset(this.raster, y, this.scanlineStride, this.pixelStride);
+            for (int x=0; x<this.width; x++, offset += this.pixelStride) {
+                int alpha = this.alphaOffset < 0 ? 0xFF : this.data[offset + this.alphaOffset] & 0xFF;
+                argb[x] = alpha << 24 |
+                        (this.data[offset + this.redOffset] & 0xFF) << 16 |
+                        (this.data[offset + this.greenOffset] & 0xFF) << 8 |
+                        (this.data[offset + this.blueOffset] & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * TYPE_BYTE_GRAY: the grey colour space is linear, the ColorModel converts it to sRGB.
+     * The 256 possible values are converted once, using the image ColorModel.
+     */
+    private static class GrayBytePixelReader extends PixelReader {
+        private final Raster raster;
+        private final byte[] data;
+        private final int scanlineStride;
+        private final int pixelStride;
+        private final int bandOffset;
+        private final int[] lookupTable;
+
+        public GrayBytePixelReader(BufferedImage image) {
+            super(image);
+            this.raster = image.getRaster();
+            this.data = ((DataBufferByte)this.raster.getDataBuffer()).getData();
+
+            PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel)this.raster.getSampleModel();
+            this.scanlineStride = sampleModel.getScanlineStride();
+            this.pixelStride = sampleModel.getPixelStride();
+            this.bandOffset = sampleModel.getBandOffsets()[0];
+
+            ColorModel colorModel = image.getColorModel();
+            byte[] pixel = new byte[1];
+            this.lookupTable = new int[256];
+            for (int i=0; i<this.lookupTable.length; i++) {
+                pixel[0] = (byte)i;
+                this.lookupTable[i] = colorModel.getRGB(pixel);
+            }
+        }
+
+        @Override
+        public void readRow(int y, int[] argb) {
+            int offset = getRowOffset(this.raster, y, this.scanlineStride, this.pixelStride) + this.bandOffset;
+            for (int x=0; x<this.width; x++, offset += this.pixelStride) {
+                argb[x] = this.lookupTable[this.data[offset] & 0xFF];
+            }
+        }
+    }
+
+    /**
+     * Any other image: let the image ColorModel do the conversion.
+     */
+    private static class GenericPixelReader extends PixelReader {
+        public GenericPixelReader(BufferedImage image) {
+            super(image);
+        }
+
+        @Override
+        public void readRow(int y, int[] argb) {
+            this.getImage().getRGB(0, y, this.width, 1, argb, 0, this.width);
+        }
+    }
+
+    /**
+     * Raster without colour model: the samples are used as is (sRGB).
+     */
+    private static class RasterPixelReader extends PixelReader {
+        private final Raster raster;
+        private final int numBands;
+        private final int[] sampleShifts;
+        // Largest value of the samples smaller than 8 bits, 0 for the other samples
+        private final int[] sampleMaximums;
+
+        public RasterPixelReader(Raster raster) {
+            super(raster);
+            this.raster = raster;
+            this.numBands = raster.getNumBands();
+            if (this.numBands < 1 || this.numBands > 4) {
+                throw new IllegalArgumentException(String.format("Unsupported number of bands: %d", this.numBands));
+            }
+
+            SampleModel sampleModel = raster.getSampleModel();
+            this.sampleShifts = new int[this.numBands];
+            this.sampleMaximums = new int[this.numBands];
+            for (int band=0; band<this.numBands; band++) {
+                int sampleSize = sampleModel.getSampleSize(band);
+                this.sampleShifts[band] = Math.max(0, sampleSize - 8);
+                this.sampleMaximums[band] = sampleSize < 8 ? (1 << sampleSize) - 1 : 0;
+            }
+        }
+
+        @Override
+        public int[] createRowBuffer() {
+            // The samples are read in the row buffer, then packed in place.
+            return new int[this.width * this.numBands];
+        }
+
+        @Override
+        public void readRow(int y, int[] argb) {
+            int[] samples = argb;
+            this.raster.getPixels(this.raster.getMinX(), this.raster.getMinY() + y, this.width, 1, samples);
+
+            // NOTE: Packing from left to right is safe since pixel x
+            //   never overwrite the samples of the pixels after it.
+            for (int x=0, i=0; x<this.width; x++, i += this.numBands) {
+                int red, green, blue, alpha = 0xFF;
+                switch (this.numBands) {
+                    case 1:
+                        red = green = blue = this.getSample(samples, i, 0);
+                        break;
+                    case 2:
+                        red = green = blue = this.getSample(samples, i, 0);
+                        alpha = this.getSample(samples, i + 1, 1);
+                        break;
+                    case 3:
+                        red = this.getSample(samples, i, 0);
+                        green = this.getSample(samples, i + 1, 1);
+                        blue = this.getSample(samples, i + 2, 2);
+                        break;
+                    default:
+                        red = this.getSample(samples, i, 0);
+                        green = this.getSample(samples, i + 1, 1);
+                        blue = this.getSample(samples, i + 2, 2);
+                        alpha = this.getSample(samples, i + 3, 3);
+                        break;
+                }
+                argb[x] = alpha << 24 | red << 16 | green << 8 | blue;
+            }
+        }
+
+        private int getSample(int[] samples, int index, int band) {
+            int sampleMaximum = this.sampleMaximums[band];
+            if (sampleMaximum != 0) {
+                // Rounded, so 1, 2 and 4 bits samples are scaled exactly (* 255, * 85, * 17)
+                return (samples[index] * 255 + sampleMaximum / 2) / sampleMaximum;
+            }
+            return (samples[index] >>> this.sampleShifts[band]) & 0xFF;
+        }
+    }
+}
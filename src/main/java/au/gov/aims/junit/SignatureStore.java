@@ -0,0 +1,329 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Store of the {@link ImageSignature signatures} of the expected images, kept on disk between test runs.
+ *
+ * <p>When an expected image file has a signature, the assertions decode the actual image only.
+ * Actual images identical to the expected image are confirmed using the digest of their pixels,
+ * and images too different from the expected image are rejected using the sums of their tiles
+ * (see {@link ImagePyramid}). The expected image is only decoded when the signature
+ * is not enough to decide.</p>
+ *
+ * <p>A signature is used as long as the expected image file has the same last modified date and size.
+ * If the last modified date changed (after a checkout, for example), the signature is still used
+ * if the file digest is unchanged.</p>
+ *
+ * <p>The store is a compressed binary file, written when {@link #save()} or {@link #close()} is called.
+ * It's not saved automatically: new signatures are lost if the store is not saved before the JVM exits.
+ * The signatures of all the expected images used by the assertions
+ * are added to the store. The store is thread safe, but the file is not shared between JVMs:
+ * when several JVMs (forks) use the same file, the last one to save it wins.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * &#64;BeforeClass
+ * public static void openSignatureStore() {
+ *     AssertImage.setSignatureStore(new SignatureStore());
+ * }
+ *
+ * &#64;AfterClass
+ * public static void closeSignatureStore() throws IOException {
+ *     AssertImage.getSignatureStore().close();
+ *     AssertImage.setSignatureStore(null);
+ * }
+ * </pre>
+ */
+public class SignatureStore implements AutoCloseable {
+    /**
+     * Default location of the store, relative to the working directory (usually the Maven module directory).
+     */
+    public static final String DEFAULT_FILE = "target/junit-image-signatures.bin";
+
+    private static final int MAGIC_NUMBER = 0x4A495353; // "JISS"
+    private static final int FORMAT_VERSION = 1;
+
+    private final File file;
+
+    // Loaded when first requested
+    private Map<String, ImageSignature> signatures = null;
+    private boolean modified = false;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    public SignatureStore() {
+        this(new File(DEFAULT_FILE));
+    }
+
+    /**
+     * @param file The file of the store. It's created when the store is saved, if it doesn't exist.
+     */
+    public SignatureStore(File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("Signature store file must not be null.");
+        }
+        this.file = file;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * @param imageFile The expected image file.
+     * @return The signature of the image file, or null if the store has no signature
+     *     for the file, or if the file changed since its signature was computed.
+     * @throws IOException If the store or the image file can't be read.
+     */
+    public ImageSignature getSignature(File imageFile) throws IOException {
+        String key = imageFile.getCanonicalPath();
+        long lastModified = imageFile.lastModified();
+        long length = imageFile.length();
+
+        ImageSignature signature;
+        synchronized (this) {
+            signature = this.getSignatures().get(key);
+            if (signature == null || signature.getFileLength() != length) {
+                this.missCount++;
+                return null;
+            }
+            if (signature.getFileLastModified() == lastModified) {
+                this.hitCount++;
+                return signature;
+            }
+        }
+
+        // Last modified date changed: compare the digest, outside of the lock
+        byte[] fileDigest = ContentDigest.digest(imageFile);
+        synchronized (this) {
+            if (!Arrays.equals(signature.getFileDigest(), fileDigest)) {
+                this.missCount++;
+                return null;
+            }
+            this.hitCount++;
+            ImageSignature updatedSignature = new ImageSignature(lastModified, length, fileDigest,
+                    signature.getRasterDigest(), signature.getPyramid());
+            this.put(key, updatedSignature);
+            return updatedSignature;
+        }
+    }
+
+    /**
+     * Compute the signature of an image file, and add it to the store.
+     * @param imageFile The expected image file.
+     * @param pixelReader The decoded pixels of the image file.
+     * @throws IOException If the store or the image file can't be read.
+     */
+    void putSignature(File imageFile, PixelReader pixelReader) throws IOException {
+        String key = imageFile.getCanonicalPath();
+        ImageSignature signature = ImageSignature.create(imageFile, pixelReader);
+        synchronized (this) {
+            this.put(key, signature);
+        }
+    }
+
+    private void put(String key, ImageSignature signature) {
+        this.getSignatures().put(key, signature);
+        this.modified = true;
+    }
+
+    public synchronized int getEntryCount() {
+        return this.getSignatures().size();
+    }
+
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * Remove all the signatures. The store file is emptied on the next save.
+     */
+    public synchronized void clear() {
+        this.signatures = new LinkedHashMap<String, ImageSignature>();
+        this.modified = true;
+    }
+
+    /**
+     * Write the store file, if signatures were added since it was loaded.
+     * The file is written in a temporary file first, then moved, so it's never left half written.
+     * @throws IOException If the store file can't be written.
+     */
+    public synchronized void save() throws IOException {
+        if (!this.modified) {
+            return;
+        }
+
+        File directory = this.file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Can not create the directory %s", directory));
+        }
+
+        File temporaryFile = File.createTempFile(this.file.getName(), ".tmp", directory);
+        try {
+            try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(new FileOutputStream(temporaryFile))))) {
+                write(outputStream, this.signatures);
+            }
+            Files.move(temporaryFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile.toPath());
+        }
+        this.modified = false;
+    }
+
+    /**
+     * Save the store. The store can still be used after it's closed.
+     * @throws IOException If the store file can't be written.
+     * @see #save()
+     */
+    @Override
+    public void close() throws IOException {
+        this.save();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Signature store %s. Entries: %s, Hits: %d, Misses: %d",
+                this.file, this.signatures == null ? "not loaded" : String.valueOf(this.signatures.size()),
+                this.hitCount, this.missCount);
+    }
+
+    private Map<String, ImageSignature> getSignatures() {
+        if (this.signatures == null) {
+            this.signatures = this.load();
+        }
+        return this.signatures;
+    }
+
+    /**
+     * Load the store file. A store written in another format is ignored: the signatures are computed again.
+     */
+    private Map<String, ImageSignature> load() {
+        if (!this.file.isFile()) {
+            return new LinkedHashMap<String, ImageSignature>();
+        }
+
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(this.file))))) {
+            if (inputStream.readInt() != MAGIC_NUMBER || inputStream.readInt() != FORMAT_VERSION ||
+                    inputStream.readInt() != ImagePyramid.BASE_BLOCK_SIZE) {
+                return new LinkedHashMap<String, ImageSignature>();
+            }
+            return read(inputStream);
+        } catch(IOException ex) {
+            // Truncated or corrupted store (killed JVM, for example): it's replaced on the next save
+            return new LinkedHashMap<String, ImageSignature>();
+        }
+    }
+
+    /*
+     * File format (after the GZIP decompression):
+     *   int magic number, int format version, int base block size, int entry count
+     *   For each entry:
+     *     UTF canonical path, long last modified, long length,
+     *     short digest length + file digest, short digest length + raster digest,
+     *     int width, int height,
+     *     For each tile of the finest pyramid level, for each channel (Red, Green, Blue):
+     *       unsigned short sum, unsigned byte minimum, unsigned byte maximum
+     */
+
+    private static void write(DataOutputStream outputStream, Map<String, ImageSignature> signatures) throws IOException {
+        outputStream.writeInt(MAGIC_NUMBER);
+        outputStream.writeInt(FORMAT_VERSION);
+        outputStream.writeInt(ImagePyramid.BASE_BLOCK_SIZE);
+        outputStream.writeInt(signatures.size());
+
+        for (Map.Entry<String, ImageSignature> signatureEntry : signatures.entrySet()) {
+            ImageSignature signature = signatureEntry.getValue();
+            outputStream.writeUTF(signatureEntry.getKey());
+            outputStream.writeLong(signature.getFileLastModified());
+            outputStream.writeLong(signature.getFileLength());
+            writeBytes(outputStream, signature.getFileDigest());
+            writeBytes(outputStream, signature.getRasterDigest());
+            outputStream.writeInt(signature.getWidth());
+            outputStream.writeInt(signature.getHeight());
+
+            // The sum of a 8 x 8 tile channel fits in an unsigned short: 8 * 8 * 255 = 16320
+            ImagePyramid.Level level = signature.getPyramid().getLevel(0);
+            for (int index=0; index<level.sums.length; index++) {
+                outputStream.writeShort((int)level.sums[index]);
+                outputStream.writeByte(level.minimums[index]);
+                outputStream.writeByte(level.maximums[index]);
+            }
+        }
+    }
+
+    private static Map<String, ImageSignature> read(DataInputStream inputStream) throws IOException {
+        Map<String, ImageSignature> signatures = new LinkedHashMap<String, ImageSignature>();
+
+        int entryCount = inputStream.readInt();
+        for (int i=0; i<entryCount; i++) {
+            String key = inputStream.readUTF();
+            long lastModified = inputStream.readLong();
+            long length = inputStream.readLong();
+            byte[] fileDigest = readBytes(inputStream);
+            byte[] rasterDigest = readBytes(inputStream);
+            int width = inputStream.readInt();
+            int height = inputStream.readInt();
+
+            ImagePyramid.Level level = new ImagePyramid.Level(ImagePyramid.BASE_BLOCK_SIZE, width, height);
+            for (int index=0; index<level.sums.length; index++) {
+                level.sums[index] = inputStream.readUnsignedShort();
+                level.minimums[index] = inputStream.readByte();
+                level.maximums[index] = inputStream.readByte();
+            }
+
+            signatures.put(key, new ImageSignature(lastModified, length, fileDigest, rasterDigest, ImagePyramid.create(level)));
+        }
+        return signatures;
+    }
+
+    private static void writeBytes(DataOutputStream outputStream, byte[] bytes) throws IOException {
+        outputStream.writeShort(bytes.length);
+        outputStream.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream inputStream) throws IOException {
+        byte[] bytes = new byte[inputStream.readUnsignedShort()];
+        inputStream.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+
+/**
+ * Read an image file one strip of rows at a time, without decoding the whole image.
+ * Only one strip is held in memory, so the memory used is bounded by
+ * the strip height rather than by the image size.
+ *
+ * <p>The strips are decoded using {@link ImageReadParam#setSourceRegion(Rectangle)}.
+ * Only the formats which support random access (such as tiled or stripped TIFF, or BMP)
+ * can decode the requested region without decoding the rows before it.
+ * There is no TIFF reader before Java 9: with Java 8, only BMP files are streamed.
+ * Other formats (such as PNG, JPEG or GIF) would decode the rows before the strip again,
+ * for every strip (O(height^2 / strip height)): they are decoded whole instead
+ * (see {@link #open(File, int)}).</p>
+ *
+ * <p>The reader is sequential: it must not be shared between threads.</p>
+ */
+class StripPixelReader extends PixelReader {
+    private final File file;
+    private final ImageInputStream imageInputStream;
+    private final ImageReader imageReader;
+    private final int stripHeight;
+
+    // The strip currently decoded: rows [stripStart, stripStart + strip height[
+    private int stripStart = -1;
+    private PixelReader stripPixelReader = null;
+
+    private StripPixelReader(File file, ImageInputStream imageInputStream, ImageReader imageReader, int stripHeight) throws IOException {
+        super(imageReader.getWidth(0), imageReader.getHeight(0));
+        this.file = file;
+        this.imageInputStream = imageInputStream;
+        this.imageReader = imageReader;
+        this.stripHeight = stripHeight;
+    }
+
+    /**
+     * @param file The image file.
+     * @param stripHeight The number of rows decoded at once.
+     * @return A strip reader for the file, a reader for the whole decoded image if the image format
+     *     can't decode a region without decoding the rows before it, or null if the file is not an image.
+     * @throws IOException If the file can't be read.
+     */
+    public static PixelReader open(File file, int stripHeight) throws IOException {
+        if (stripHeight <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid strip height: %d", stripHeight));
+        }
+
+        ImageInputStream imageInputStream = ImageIO.createImageInputStream(file);
+        if (imageInputStream == null) {
+            return null;
+        }
+
+        ImageReader imageReader = null;
+        boolean streamed = false;
+        try {
+            Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(imageInputStream);
+            if (!imageReaders.hasNext()) {
+                return null;
+            }
+
+            imageReader = imageReaders.next();
+            imageReader.setInput(imageInputStream, false, true);
+            if (isRandomAccess(imageReader)) {
+                StripPixelReader stripPixelReader = new StripPixelReader(file, imageInputStream, imageReader, stripHeight);
+                streamed = true;
+                return stripPixelReader;
+            }
+
+            // Streaming disabled for this format
+            return PixelReader.create(imageReader.read(0));
+        } finally {
+            // The strip reader closes the stream and disposes the image reader when it's closed
+            if (!streamed) {
+                if (imageReader != null) {
+                    imageReader.dispose();
+                }
+                imageInputStream.close();
+            }
+        }
+    }
+
+    /**
+     * The TIFF reader only decodes the tiles or strips of the source region,
+     * but it doesn't report it as easy random access.
+     */
+    private static boolean isRandomAccess(ImageReader imageReader) throws IOException {
+        if (imageReader.isRandomAccessEasy(0)) {
+            return true;
+        }
+        String formatName = imageReader.getFormatName();
+        return "tif".equalsIgnoreCase(formatName) || "tiff".equalsIgnoreCase(formatName);
+    }
+
+    @Override
+    public boolean isSequential() {
+        return true;
+    }
+
+    @Override
+    public void readRow(int y, int[] argb) {
+        if (this.stripPixelReader == null || y < this.stripStart || y >= this.stripStart + this.stripPixelReader.getHeight()) {
+            this.decodeStrip(y - y % this.stripHeight);
+        }
+        this.stripPixelReader.readRow(y - this.stripStart, argb);
+    }
+
+    private void decodeStrip(int start) {
+        ImageReadParam readParam = this.imageReader.getDefaultReadParam();
+        readParam.setSourceRegion(new Rectangle(0, start, this.width, Math.min(this.stripHeight, this.height - start)));
+
+        // Release the previous strip before decoding the next one
+        this.stripPixelReader = null;
+        try {
+            BufferedImage strip = this.imageReader.read(0, readParam);
+            this.stripPixelReader = PixelReader.create(strip);
+            this.stripStart = start;
+        } catch(IOException ex) {
+            throw new UncheckedIOException(String.format("Error occurred while decoding rows [%d, %d] of image file %s",
+                    start, start + this.stripHeight - 1, this.file), ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.stripPixelReader = null;
+        this.imageReader.dispose();
+        this.imageInputStream.close();
+    }
+}
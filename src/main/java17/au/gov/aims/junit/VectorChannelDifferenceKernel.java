@@ -0,0 +1,94 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Channel difference kernel using the Vector API (Java 17 or later, incubator module).
+ * Each lane holds a packed ARGB pixel; the channels are unpacked in the lanes,
+ * and the differences are summed per lane, then added horizontally.
+ *
+ * <p>Loaded by {@link ChannelDifferenceKernel#getInstance()} using reflection.</p>
+ */
+class VectorChannelDifferenceKernel extends ChannelDifferenceKernel {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    // Pixels summed in the int lanes before adding them to the long sums.
+    // Each lane sums at most CHUNK_SIZE / lanes * 255, which fits in an int.
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    VectorChannelDifferenceKernel() {
+        // Fail now, rather than on the first comparison, if the species can't be used
+        IntVector.zero(SPECIES);
+    }
+
+    @Override
+    void addDifferences(int[] expectedRow, int[] actualRow, int width, long[] channelSums) {
+        long redDiff = 0, greenDiff = 0, blueDiff = 0;
+
+        int x = 0;
+        int vectorEnd = SPECIES.loopBound(width);
+        while (x < vectorEnd) {
+            int chunkEnd = Math.min(vectorEnd, x + CHUNK_SIZE);
+            IntVector redSums = IntVector.zero(SPECIES);
+            IntVector greenSums = IntVector.zero(SPECIES);
+            IntVector blueSums = IntVector.zero(SPECIES);
+
+            for (; x<chunkEnd; x+=SPECIES.length()) {
+                IntVector expectedRGB = IntVector.fromArray(SPECIES, expectedRow, x);
+                IntVector actualRGB = IntVector.fromArray(SPECIES, actualRow, x);
+
+                redSums = redSums.add(
+                        expectedRGB.lanewise(VectorOperators.LSHR, 16).and(0xFF)
+                                .sub(actualRGB.lanewise(VectorOperators.LSHR, 16).and(0xFF)).abs());
+                greenSums = greenSums.add(
+                        expectedRGB.lanewise(VectorOperators.LSHR, 8).and(0xFF)
+                                .sub(actualRGB.lanewise(VectorOperators.LSHR, 8).and(0xFF)).abs());
+                blueSums = blueSums.add(
+                        expectedRGB.and(0xFF)
+                                .sub(actualRGB.and(0xFF)).abs());
+            }
+
+            redDiff += redSums.reduceLanes(VectorOperators.ADD);
+            greenDiff += greenSums.reduceLanes(VectorOperators.ADD);
+            blueDiff += blueSums.reduceLanes(VectorOperators.ADD);
+        }
+
+        // Remaining pixels, fewer than the number of lanes
+        for (; x<width; x++) {
+            int expectedRGB = expectedRow[x];
+            int actualRGB = actualRow[x];
+            redDiff += Math.abs(((expectedRGB >> 16) & 0xFF) - ((actualRGB >> 16) & 0xFF));
+            greenDiff += Math.abs(((expectedRGB >> 8) & 0xFF) - ((actualRGB >> 8) & 0xFF));
+            blueDiff += Math.abs((expectedRGB & 0xFF) - (actualRGB & 0xFF));
+        }
+
+        channelSums[0] += redDiff;
+        channelSums[1] += greenDiff;
+        channelSums[2] += blueDiff;
+    }
+
+    @Override
+    String getName() {
+        return String.format("Vector API (%d lanes)", SPECIES.length());
+    }
+}
@@ -21,8 +21,14 @@ package au.gov.aims.junit;
 import org.junit.Assert;
 import org.junit.Test;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 /**
  * This test class test the TestUtils class.
@@ -65,6 +71,30 @@ public class AssertImageTest {
     }
 
 
+    @Test
+    public void testAssertEqualsFailFast() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        File blackImageFile              = AssertImage.getResourceFile("imageDiff/black.png");
+
+        try {
+            AssertImage.assertEquals("Black and white images must fail.", whiteImageFile, blackImageFile, 0.05);
+        } catch(AssertionError ex) {
+            // The comparison stops after the first row (10% of the image)
+            Assert.assertTrue(String.format("The failure message must report the partial difference. Actual: %s", ex.getMessage()),
+                    ex.getMessage().contains("at least 10.00%"));
+            return;
+        }
+        Assert.fail("Black and white images must be reported as different.");
+    }
+
+    @Test
+    public void testAssertNotEqualsSucceedFast() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        File chessboardImageFile         = AssertImage.getResourceFile("imageDiff/black-50_white-50_chessboard.png");
+
+        AssertImage.assertNotEquals("Chessboard and white images must be reported as different.", whiteImageFile, chessboardImageFile, 0);
+    }
+
     @Test (expected = IOException.class)
     public void testGetImageDifferenceWrongDimensions() throws Exception {
         File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
@@ -75,6 +105,28 @@ public class AssertImageTest {
         Assert.fail("Incompatible dimensions must throw an IOException.");
     }
 
+    @Test
+    public void testGetImageDifferenceWrongDimensionsMessage() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        File white20x5ImageFile          = AssertImage.getResourceFile("imageDiff/white_20x5.png");
+
+        try {
+            AssertImage.getImageDifference(whiteImageFile, white20x5ImageFile);
+            Assert.fail("Incompatible dimensions must throw an IOException.");
+        } catch(IOException ex) {
+            Assert.assertTrue(String.format("Wrong message: %s", ex.getMessage()),
+                    ex.getMessage().contains(String.format("Expected image file: %s. Actual image file: %s.", whiteImageFile, white20x5ImageFile)));
+        }
+
+        try {
+            AssertImage.getImageDifference(ImageIO.read(whiteImageFile), ImageIO.read(white20x5ImageFile));
+            Assert.fail("Incompatible dimensions must throw an IOException.");
+        } catch(IOException ex) {
+            Assert.assertTrue(String.format("Wrong message: %s", ex.getMessage()),
+                    ex.getMessage().contains("Expected image source: BufferedImage["));
+        }
+    }
+
     /**
      * This test only test the TestUtils.getImageDifference.
      * This method is used to quantify the difference (in percentage) between the pixels of 2 images.
@@ -215,4 +267,135 @@ public class AssertImageTest {
         Assert.assertTrue(String.format("RGB circles (PNG) and RGB circles (PNG low saturation and high brightness) should be bigger than 10.3%% different. Actual: %.2f", diff),
                 diff > 0.103);
     }
+
+    /**
+     * Test the overloads which do not require the images to be saved in files.
+     * @throws Exception
+     */
+    @Test
+    public void testGetImageDifferenceInMemory() throws Exception {
+        File chessboardImageFile         = AssertImage.getResourceFile("imageDiff/black-50_white-50_chessboard.png");
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+
+        double diff;
+
+        // Path
+        Path chessboardImagePath = chessboardImageFile.toPath();
+        Path whiteImagePath = whiteImageFile.toPath();
+        diff = AssertImage.getImageDifference(chessboardImagePath, whiteImagePath);
+        Assert.assertEquals("Chessboard image and white image should be 50% different (Path).", 0.5, diff, AssertImage.SMALL_VALUE);
+
+        // byte[]
+        byte[] chessboardImageBytes = Files.readAllBytes(chessboardImagePath);
+        byte[] whiteImageBytes = Files.readAllBytes(whiteImagePath);
+        diff = AssertImage.getImageDifference(chessboardImageBytes, whiteImageBytes);
+        Assert.assertEquals("Chessboard image and white image should be 50% different (byte[]).", 0.5, diff, AssertImage.SMALL_VALUE);
+
+        // InputStream
+        try (
+                InputStream chessboardInputStream = Files.newInputStream(chessboardImagePath);
+                InputStream whiteInputStream = Files.newInputStream(whiteImagePath)
+        ) {
+            diff = AssertImage.getImageDifference(chessboardInputStream, whiteInputStream);
+            Assert.assertEquals("Chessboard image and white image should be 50% different (InputStream).", 0.5, diff, AssertImage.SMALL_VALUE);
+        }
+
+        // BufferedImage
+        BufferedImage chessboardImage = ImageIO.read(chessboardImageFile);
+        BufferedImage whiteImage = ImageIO.read(whiteImageFile);
+        diff = AssertImage.getImageDifference(chessboardImage, whiteImage);
+        Assert.assertEquals("Chessboard image and white image should be 50% different (BufferedImage).", 0.5, diff, AssertImage.SMALL_VALUE);
+
+        // Raster
+        diff = AssertImage.getImageDifference(chessboardImage.getRaster(), whiteImage.getRaster());
+        Assert.assertEquals("Chessboard image and white image should be 50% different (Raster).", 0.5, diff, AssertImage.SMALL_VALUE);
+
+        AssertImage.assertEquals("Same image must be reported as equals (BufferedImage).", whiteImage, ImageIO.read(whiteImageFile), 0);
+        AssertImage.assertNotEquals("Different images must be reported as not equals (byte[]).", chessboardImageBytes, whiteImageBytes, 0.1);
+    }
+
+    @Test
+    public void testGetImageDifferenceIdenticalFiles() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        File blackImageFile              = AssertImage.getResourceFile("imageDiff/black.png");
+
+        File whiteImageCopy = File.createTempFile("white_", ".png");
+        File blackImageCopy = File.createTempFile("black_", ".png");
+        try {
+            Files.copy(whiteImageFile.toPath(), whiteImageCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(blackImageFile.toPath(), blackImageCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            double diff = AssertImage.getImageDifference(whiteImageFile, whiteImageCopy);
+            Assert.assertEquals("Byte-identical files must be reported as identical.", 0, diff, 0);
+
+            // Same file size, different content
+            diff = AssertImage.getImageDifference(whiteImageCopy, blackImageCopy);
+            Assert.assertEquals("White image and black image are not reported as been completely different.", 1, diff, AssertImage.SMALL_VALUE);
+        } finally {
+            whiteImageCopy.delete();
+            blackImageCopy.delete();
+        }
+    }
+
+    @Test
+    public void testGetImageDifferenceRasterDigest() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        File whiteImageFileWithMetadata  = AssertImage.getResourceFile("imageDiff/white_with-metadata.png");
+        File blackImageFile              = AssertImage.getResourceFile("imageDiff/black.png");
+
+        AssertImage.setImageComparator(new ImageComparator().setRasterDigestCheck(true));
+        try {
+            double diff = AssertImage.getImageDifference(whiteImageFile, whiteImageFileWithMetadata);
+            Assert.assertEquals("White images are reported as been different.", 0, diff, 0);
+
+            diff = AssertImage.getImageDifference(whiteImageFile, blackImageFile);
+            Assert.assertEquals("White image and black image are not reported as been completely different.", 1, diff, AssertImage.SMALL_VALUE);
+        } finally {
+            AssertImage.setImageComparator(null);
+        }
+    }
+
+    @Test (expected = IOException.class)
+    public void testGetImageDifferenceNotAnImage() throws Exception {
+        AssertImage.getImageDifference(new byte[] { 1, 2, 3 }, new byte[] { 4, 5, 6 });
+    }
+
+    @Test
+    public void testGetImageDifferenceSameFileNotAnImage() throws Exception {
+        File notAnImage = File.createTempFile("not-an-image_", ".png");
+        File notAnImageCopy = File.createTempFile("not-an-image_", ".png");
+        try {
+            Files.write(notAnImage.toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+            Files.copy(notAnImage.toPath(), notAnImageCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            for (File otherFile : new File[] { notAnImage, notAnImageCopy }) {
+                try {
+                    AssertImage.getImageDifference(notAnImage, otherFile);
+                    Assert.fail("A file which is not an image must not be compared, even with itself.");
+                } catch(IOException ex) {
+                    // Expected
+                }
+
+                boolean failed = false;
+                try {
+                    AssertImage.assertEquals(notAnImage, otherFile, 0);
+                } catch(AssertionError ex) {
+                    failed = true;
+                }
+                Assert.assertTrue("A file which is not an image must not be equal to itself.", failed);
+                AssertImage.assertNotEquals(notAnImage, otherFile, 0);
+            }
+
+            byte[] notAnImageBytes = Files.readAllBytes(notAnImage.toPath());
+            try {
+                AssertImage.getImageDifference(notAnImageBytes, notAnImageBytes);
+                Assert.fail("Bytes which are not an image must not be compared, even with themselves.");
+            } catch(IOException ex) {
+                // Expected
+            }
+        } finally {
+            notAnImage.delete();
+            notAnImageCopy.delete();
+        }
+    }
 }
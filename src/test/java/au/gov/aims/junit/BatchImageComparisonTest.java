@@ -0,0 +1,201 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+public class BatchImageComparisonTest {
+
+    @Test
+    public void testCompareDirectories() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        File whiteImageFileWithMetadata  = AssertImage.getResourceFile("imageDiff/white_with-metadata.png");
+        File chessboardImageFile         = AssertImage.getResourceFile("imageDiff/black-50_white-50_chessboard.png");
+        File white20x5ImageFile          = AssertImage.getResourceFile("imageDiff/white_20x5.png");
+
+        Path expectedDirectory = Files.createTempDirectory("expected_");
+        Path actualDirectory = Files.createTempDirectory("actual_");
+        Files.createDirectories(expectedDirectory.resolve("tiles"));
+        Files.createDirectories(actualDirectory.resolve("tiles"));
+
+        // Byte-identical files
+        Files.copy(whiteImageFile.toPath(), expectedDirectory.resolve("a_identical.png"));
+        Files.copy(whiteImageFile.toPath(), actualDirectory.resolve("a_identical.png"));
+        // Same pixels, different files
+        Files.copy(whiteImageFile.toPath(), expectedDirectory.resolve("tiles/b_same-pixels.png"));
+        Files.copy(whiteImageFileWithMetadata.toPath(), actualDirectory.resolve("tiles/b_same-pixels.png"));
+        // 50% different
+        Files.copy(whiteImageFile.toPath(), expectedDirectory.resolve("tiles/c_different.png"));
+        Files.copy(chessboardImageFile.toPath(), actualDirectory.resolve("tiles/c_different.png"));
+        // Different dimensions
+        Files.copy(whiteImageFile.toPath(), expectedDirectory.resolve("d_dimensions.png"));
+        Files.copy(white20x5ImageFile.toPath(), actualDirectory.resolve("d_dimensions.png"));
+        // Missing actual file
+        Files.copy(whiteImageFile.toPath(), expectedDirectory.resolve("e_missing.png"));
+        // Not an image
+        Files.write(expectedDirectory.resolve("f_not-an-image.png"), new byte[] { 1, 2, 3 });
+        Files.write(actualDirectory.resolve("f_not-an-image.png"), new byte[] { 4, 5, 6 });
+        // Unexpected actual file, ignored
+        Files.copy(whiteImageFile.toPath(), actualDirectory.resolve("g_unexpected.png"));
+
+        BatchReport report = new BatchImageComparison()
+                .setDelta(0.1)
+                .setMaximumPendingPairs(2)
+                .compareDirectories(expectedDirectory.toFile(), actualDirectory.toFile());
+
+        List<BatchReport.Entry> entries = report.getEntries();
+        Assert.assertEquals(String.format("Every expected file must be compared. %s", report), 6, entries.size());
+
+        // Sorted by relative path
+        assertEntry(entries.get(0), "a_identical.png", BatchReport.Status.PASSED);
+        Assert.assertEquals("Identical files must not be different.", 0, entries.get(0).getDifference(), 0);
+        assertEntry(entries.get(1), "d_dimensions.png", BatchReport.Status.ERROR);
+        assertEntry(entries.get(2), "e_missing.png", BatchReport.Status.ERROR);
+        assertEntry(entries.get(3), "f_not-an-image.png", BatchReport.Status.ERROR);
+        assertEntry(entries.get(4), "b_same-pixels.png", BatchReport.Status.PASSED);
+        assertEntry(entries.get(5), "c_different.png", BatchReport.Status.FAILED);
+        Assert.assertTrue("The difference of a failed pair must exceed the delta.", entries.get(5).getDifference() > 0.1);
+
+        Assert.assertEquals("Wrong passed count.", 2, report.getCount(BatchReport.Status.PASSED));
+        Assert.assertEquals("Wrong failed count.", 1, report.getCount(BatchReport.Status.FAILED));
+        Assert.assertEquals("Wrong error count.", 3, report.getCount(BatchReport.Status.ERROR));
+        Assert.assertFalse("The report must not be successful.", report.isSuccess());
+
+        try {
+            report.assertSuccess();
+            Assert.fail("The report assertion must fail.");
+        } catch(AssertionError ex) {
+            Assert.assertTrue("The failure message must list the failed pair.", ex.getMessage().contains("c_different.png"));
+        }
+    }
+
+    @Test
+    public void testComparePairs() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        File blackImageFile              = AssertImage.getResourceFile("imageDiff/black.png");
+        File chessboardImageFile         = AssertImage.getResourceFile("imageDiff/black-50_white-50_chessboard.png");
+        File chessboardInvImageFile      = AssertImage.getResourceFile("imageDiff/black-50_white-50_chessboard-inv.png");
+
+        Map<File, File> pairs = new LinkedHashMap<File, File>();
+        pairs.put(whiteImageFile, blackImageFile);
+        pairs.put(chessboardImageFile, chessboardInvImageFile);
+        pairs.put(blackImageFile, blackImageFile);
+
+        ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+        ExecutorService compareExecutor = Executors.newSingleThreadExecutor();
+        try {
+            BatchReport report = new BatchImageComparison()
+                    .setDelta(1)
+                    .setDecodeExecutor(decodeExecutor)
+                    .setCompareExecutor(compareExecutor)
+                    .setMaximumPendingPairs(1)
+                    .compare(pairs);
+
+            // The given order is kept
+            List<BatchReport.Entry> entries = report.getEntries();
+            Assert.assertEquals("Wrong number of entries.", 3, entries.size());
+            Assert.assertEquals("White and black images should be 100% different.", 1, entries.get(0).getDifference(), AssertImage.SMALL_VALUE);
+            Assert.assertEquals("Inverted chessboards should be 100% different.", 1, entries.get(1).getDifference(), AssertImage.SMALL_VALUE);
+            Assert.assertEquals("Same image should not be different.", 0, entries.get(2).getDifference(), 0);
+
+            report.assertSuccess();
+        } finally {
+            decodeExecutor.shutdown();
+            compareExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testUpperBound() throws Exception {
+        File expectedImageFile = File.createTempFile("expected_", ".png");
+        File actualImageFile = File.createTempFile("actual_", ".png");
+        try {
+            ImageIO.write(PixelReaderTest.createRandomImage(64, 64, BufferedImage.TYPE_INT_RGB, 1), "png", expectedImageFile);
+            ImageIO.write(PixelReaderTest.createRandomImage(64, 64, BufferedImage.TYPE_INT_RGB, 2), "png", actualImageFile);
+
+            Map<File, File> pairs = new LinkedHashMap<File, File>();
+            pairs.put(expectedImageFile, actualImageFile);
+
+            BatchReport report = new BatchImageComparison()
+                    .setImageComparator(new ImageComparator().setPyramidCheck(true))
+                    .setDelta(0.9)
+                    .compare(pairs);
+
+            BatchReport.Entry entry = report.getEntries().get(0);
+            assertEntry(entry, expectedImageFile.getName(), BatchReport.Status.PASSED);
+            Assert.assertTrue("The difference must be decided from the bounds.", entry.isUpperBound());
+            Assert.assertTrue(String.format("The difference must be reported as an upper bound: %s", entry),
+                    entry.toString().contains("at most "));
+        } finally {
+            expectedImageFile.delete();
+            actualImageFile.delete();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testRejectedCompareTask() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        File blackImageFile              = AssertImage.getResourceFile("imageDiff/black.png");
+        File chessboardImageFile         = AssertImage.getResourceFile("imageDiff/black-50_white-50_chessboard.png");
+        File chessboardInvImageFile      = AssertImage.getResourceFile("imageDiff/black-50_white-50_chessboard-inv.png");
+
+        Map<File, File> pairs = new LinkedHashMap<File, File>();
+        pairs.put(whiteImageFile, blackImageFile);
+        pairs.put(chessboardImageFile, chessboardInvImageFile);
+
+        // The compare executor rejects every task
+        ExecutorService compareExecutor = Executors.newSingleThreadExecutor();
+        compareExecutor.shutdown();
+
+        // With a single pending pair, the batch would hang if the permit of the rejected pair was not released
+        BatchReport report = new BatchImageComparison()
+                .setCompareExecutor(compareExecutor)
+                .setMaximumPendingPairs(1)
+                .compare(pairs);
+
+        List<BatchReport.Entry> entries = report.getEntries();
+        Assert.assertEquals("Wrong number of entries.", 2, entries.size());
+        for (BatchReport.Entry entry : entries) {
+            Assert.assertEquals(String.format("Wrong status: %s", entry), BatchReport.Status.ERROR, entry.getStatus());
+            Assert.assertTrue(String.format("Wrong error: %s", entry.getError()),
+                    entry.getError() instanceof RejectedExecutionException);
+        }
+    }
+
+    private static void assertEntry(BatchReport.Entry entry, String expectedFilename, BatchReport.Status expectedStatus) {
+        Assert.assertEquals("Wrong entry order.", expectedFilename, entry.getExpectedFile().getName());
+        Assert.assertEquals(String.format("Wrong status: %s", entry), expectedStatus, entry.getStatus());
+        if (expectedStatus == BatchReport.Status.ERROR) {
+            Assert.assertNotNull("Errors must be reported.", entry.getError());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+public class ChannelDifferenceKernelTest {
+
+    /**
+     * The kernel used by default (Vector API when available) must return the same sums as the scalar kernel,
+     * including the pixels which don't fill a vector.
+     */
+    @Test
+    public void testSameSumsAsScalar() {
+        ChannelDifferenceKernel kernel = ChannelDifferenceKernel.getInstance();
+        Random random = new Random(1);
+
+        for (int width=0; width<200; width++) {
+            // Longer than the width, like the row buffers of some pixel readers
+            int[] expectedRow = new int[width + 7];
+            int[] actualRow = new int[width + 7];
+            for (int x=0; x<expectedRow.length; x++) {
+                expectedRow[x] = random.nextInt();
+                actualRow[x] = random.nextInt();
+            }
+
+            long[] expectedSums = new long[3];
+            long[] actualSums = new long[3];
+            ChannelDifferenceKernel.SCALAR.addDifferences(expectedRow, actualRow, width, expectedSums);
+            kernel.addDifferences(expectedRow, actualRow, width, actualSums);
+            Assert.assertArrayEquals(String.format("%s kernel, width %d", kernel.getName(), width), expectedSums, actualSums);
+        }
+    }
+
+    @Test
+    public void testLargestDifference() {
+        ChannelDifferenceKernel kernel = ChannelDifferenceKernel.getInstance();
+        int width = 3 * 1024 * 1024 + 3;
+        int[] whiteRow = new int[width];
+        int[] blackRow = new int[width];
+        for (int x=0; x<width; x++) {
+            whiteRow[x] = 0x00FFFFFF;
+            blackRow[x] = 0xFF000000;
+        }
+
+        // Values accumulated over several chunks, and the sums of the previous rows are kept
+        long[] channelSums = { 1, 2, 3 };
+        kernel.addDifferences(whiteRow, blackRow, width, channelSums);
+        kernel.addDifferences(blackRow, whiteRow, width, channelSums);
+        Assert.assertArrayEquals(String.format("%s kernel", kernel.getName()),
+                new long[] { 1 + 2L * 255 * width, 2 + 2L * 255 * width, 3 + 2L * 255 * width }, channelSums);
+    }
+
+    @Test
+    public void testComparator() throws Exception {
+        BufferedImage expectedImage = PixelReaderTest.createRandomImage(301, 97, BufferedImage.TYPE_INT_ARGB, 1);
+        BufferedImage actualImage = PixelReaderTest.createRandomImage(301, 97, BufferedImage.TYPE_INT_ARGB, 2);
+
+        double scalarDifference = new ImageComparator().setVectorApi(false).getImageDifference(expectedImage, actualImage);
+        double difference = new ImageComparator().getImageDifference(expectedImage, actualImage);
+        Assert.assertEquals("The difference must be identical.", scalarDifference, difference, 0);
+
+        double parallelDifference = new ImageComparator().setParallel(true).setMinimumTileSize(1024)
+                .getImageDifference(expectedImage, actualImage);
+        Assert.assertEquals("The parallel difference must be identical.", scalarDifference, parallelDifference, 0);
+    }
+}
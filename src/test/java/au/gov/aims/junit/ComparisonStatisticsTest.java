@@ -0,0 +1,96 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ComparisonStatisticsTest {
+
+    @Test
+    public void testComparisonListener() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        File chessboardImageFile         = AssertImage.getResourceFile("imageDiff/black-50_white-50_chessboard.png");
+
+        List<ComparisonMetrics> metricsList = new ArrayList<ComparisonMetrics>();
+        ComparisonListener listener = metricsList::add;
+
+        AssertImage.addComparisonListener(listener);
+        try {
+            AssertImage.assertNotEquals(whiteImageFile, chessboardImageFile, 0.1);
+        } finally {
+            Assert.assertTrue("The listener must be removed.", AssertImage.removeComparisonListener(listener));
+        }
+        AssertImage.assertNotEquals(whiteImageFile, chessboardImageFile, 0.1);
+
+        Assert.assertEquals("The listener must be notified once, while registered.", 1, metricsList.size());
+        ComparisonMetrics metrics = metricsList.get(0);
+        Assert.assertEquals("Wrong expected source.", whiteImageFile.toString(), metrics.getExpectedSource());
+        Assert.assertEquals("Wrong actual source.", chessboardImageFile.toString(), metrics.getActualSource());
+        Assert.assertEquals("Wrong pixel count.", 100, metrics.getPixelCount());
+        Assert.assertTrue("The expected image decoding must be measured.", metrics.getExpectedDecodeNanos() > 0);
+        Assert.assertTrue("The actual image decoding must be measured.", metrics.getActualDecodeNanos() > 0);
+        Assert.assertTrue("The comparison must be measured.", metrics.getCompareNanos() > 0);
+        Assert.assertTrue("The total must include the decoding.",
+                metrics.getTotalNanos() >= metrics.getExpectedDecodeNanos() + metrics.getActualDecodeNanos());
+        Assert.assertTrue("The allocations must be measured, or unavailable.",
+                metrics.getAllocatedBytes() > 0 || metrics.getAllocatedBytes() == -1);
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        File whiteImageFileWithMetadata  = AssertImage.getResourceFile("imageDiff/white_with-metadata.png");
+        File chessboardImageFile         = AssertImage.getResourceFile("imageDiff/black-50_white-50_chessboard.png");
+
+        ComparisonStatistics statistics = new ComparisonStatistics();
+        AssertImage.addComparisonListener(statistics);
+        try {
+            AssertImage.assertEquals(whiteImageFile, whiteImageFileWithMetadata, 0);
+            AssertImage.assertNotEquals(whiteImageFile, chessboardImageFile, 0);
+            // Same file: not decoded, but still counted
+            AssertImage.assertEquals(whiteImageFile, whiteImageFile, 0);
+        } finally {
+            AssertImage.removeComparisonListener(statistics);
+        }
+
+        Assert.assertEquals("Every comparison must be counted.", 3, statistics.getComparisonCount());
+        Assert.assertEquals("Only the decoded pixels must be counted.", 200, statistics.getPixelCount());
+        Assert.assertTrue("The maximum time must not exceed the total time.", statistics.getMaxTotalNanos() <= statistics.getTotalNanos());
+
+        String json = statistics.toJson();
+        Assert.assertTrue(String.format("The JSON must contain the comparison count: %s", json), json.contains("\"comparisonCount\": 3,"));
+        Assert.assertTrue(String.format("The JSON must contain the pixel count: %s", json), json.contains("\"pixelCount\": 200,"));
+
+        File jsonFile = File.createTempFile("statistics_", ".json");
+        try {
+            statistics.writeJson(jsonFile);
+            Assert.assertEquals("The JSON file must contain the statistics.",
+                    json, new String(Files.readAllBytes(jsonFile.toPath()), StandardCharsets.UTF_8));
+        } finally {
+            jsonFile.delete();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+public class ContentDigestTest {
+
+    @Test
+    public void testFileDigest() throws Exception {
+        File rgbCirclesPNGImageFile      = AssertImage.getResourceFile("imageDiff/rgb-circles.png");
+
+        byte[] expectedDigest = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(rgbCirclesPNGImageFile.toPath()));
+        Assert.assertArrayEquals("The file digest must be the SHA-256 of the file bytes.",
+                expectedDigest, ContentDigest.digest(rgbCirclesPNGImageFile));
+    }
+
+    @Test
+    public void testRasterDigest() {
+        BufferedImage argbImage = PixelReaderTest.createRandomImage(37, 23, BufferedImage.TYPE_INT_ARGB, 42);
+
+        // Same RGB values, stored differently, without alpha
+        BufferedImage bgrImage = new BufferedImage(37, 23, BufferedImage.TYPE_3BYTE_BGR);
+        bgrImage.createGraphics().drawImage(PixelReaderTest.createRandomImage(37, 23, BufferedImage.TYPE_INT_RGB, 42), 0, 0, null);
+
+        Assert.assertArrayEquals("Images with the same RGB values must have the same raster digest.",
+                ContentDigest.digest(PixelReader.create(argbImage)), ContentDigest.digest(PixelReader.create(bgrImage)));
+
+        BufferedImage otherImage = PixelReaderTest.createRandomImage(37, 23, BufferedImage.TYPE_INT_ARGB, 43);
+        Assert.assertFalse("Images with different RGB values must have different raster digests.",
+                Arrays.equals(ContentDigest.digest(PixelReader.create(argbImage)), ContentDigest.digest(PixelReader.create(otherImage))));
+    }
+}
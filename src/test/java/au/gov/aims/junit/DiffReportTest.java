@@ -0,0 +1,110 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+public class DiffReportTest {
+
+    @Test
+    public void testChangedRegions() throws Exception {
+        BufferedImage expectedImage = new BufferedImage(200, 150, BufferedImage.TYPE_INT_RGB);
+        BufferedImage actualImage = new BufferedImage(200, 150, BufferedImage.TYPE_INT_RGB);
+
+        // Two distant regions
+        fill(actualImage, new Rectangle(10, 20, 5, 3), 0x0A0000);
+        fill(actualImage, new Rectangle(120, 90, 40, 50), 0x00FF28);
+
+        for (boolean parallel : new boolean[] { false, true }) {
+            ImageComparator imageComparator = new ImageComparator().setParallel(parallel).setMinimumTileSize(1);
+            DiffReport diffReport = imageComparator.getDiffReport(expectedImage, actualImage);
+
+            Assert.assertTrue("The report must contain differences.", diffReport.hasDifferences());
+            Assert.assertEquals("Wrong number of changed pixels.", 5 * 3 + 40 * 50, diffReport.getChangedPixelCount());
+            Assert.assertEquals("Wrong max red error.", 10, diffReport.getMaxRedError());
+            Assert.assertEquals("Wrong max green error.", 255, diffReport.getMaxGreenError());
+            Assert.assertEquals("Wrong max blue error.", 40, diffReport.getMaxBlueError());
+
+            List<Rectangle> regions = diffReport.getChangedRegions();
+            Assert.assertEquals(String.format("Wrong changed regions (parallel: %s).", parallel),
+                    Arrays.asList(new Rectangle(10, 20, 5, 3), new Rectangle(120, 90, 40, 50)), regions);
+
+            BufferedImage heatmap = diffReport.getHeatmap();
+            Assert.assertEquals("Identical pixels must be black in the heatmap.", 0, heatmap.getRGB(0, 0) & 0xFFFFFF);
+            Assert.assertNotEquals("Different pixels must not be black in the heatmap.", 0, heatmap.getRGB(10, 20) & 0xFFFFFF);
+        }
+    }
+
+    @Test
+    public void testIdenticalImages() throws Exception {
+        BufferedImage image = new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB);
+        DiffReport diffReport = new ImageComparator().getDiffReport(image, new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB));
+
+        Assert.assertFalse("Identical images must not have differences.", diffReport.hasDifferences());
+        Assert.assertNull("Identical images must not have a heatmap.", diffReport.getHeatmap());
+        Assert.assertTrue("Identical images must not have changed regions.", diffReport.getChangedRegions().isEmpty());
+    }
+
+    @Test
+    public void testAssertEqualsHeatmap() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        File black10White90HorzImageFile = AssertImage.getResourceFile("imageDiff/black-10_white-90_horz.png");
+
+        File diffOutputDirectory = Files.createTempDirectory("diff_").toFile();
+        File heatmapFile = new File(diffOutputDirectory, "black-10_white-90_horz_diff.png");
+        AssertImage.setImageComparator(new ImageComparator()
+                .setDiffReportEnabled(true)
+                .setDiffOutputDirectory(diffOutputDirectory));
+        try {
+            AssertImage.assertEquals(whiteImageFile, black10White90HorzImageFile, 0);
+            Assert.fail("The assertion must fail.");
+        } catch(AssertionError ex) {
+            Assert.assertTrue(String.format("The failure message must contain the diff report. Actual: %s", ex.getMessage()),
+                    ex.getMessage().contains("Diff image: " + heatmapFile));
+            // The comparison doesn't stop early when the diff report is enabled
+            Assert.assertTrue(String.format("The failure message must contain the exact difference. Actual: %s", ex.getMessage()),
+                    ex.getMessage().contains("Difference: 10.00%"));
+
+            BufferedImage heatmap = ImageIO.read(heatmapFile);
+            Assert.assertNotNull("The heatmap must be saved.", heatmap);
+            Assert.assertEquals("Wrong heatmap width.", 10, heatmap.getWidth());
+        } finally {
+            AssertImage.setImageComparator(null);
+            heatmapFile.delete();
+            diffOutputDirectory.delete();
+        }
+    }
+
+    private static void fill(BufferedImage image, Rectangle rectangle, int rgb) {
+        for (int y=rectangle.y; y<rectangle.y + rectangle.height; y++) {
+            for (int x=rectangle.x; x<rectangle.x + rectangle.width; x++) {
+                image.setRGB(x, y, rgb);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+public class ImageCacheTest {
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        ImageCache imageCache = new ImageCache();
+
+        BufferedImage image = imageCache.getImage(whiteImageFile);
+        Assert.assertNotNull("The image must be decoded.", image);
+        Assert.assertEquals("The first request must be a miss.", 1, imageCache.getMissCount());
+        Assert.assertEquals("The first request must not be a hit.", 0, imageCache.getHitCount());
+
+        Assert.assertSame("The second request must return the cached image.", image, imageCache.getImage(whiteImageFile));
+        Assert.assertEquals("The second request must be a hit.", 1, imageCache.getHitCount());
+        Assert.assertEquals("The cache size must be the size of the image pixels.",
+                ImageCache.getImageSize(image), imageCache.getSize());
+    }
+
+    @Test
+    public void testDerivedDataSize() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        ImageCache imageCache = new ImageCache();
+
+        PixelReader pixelReader = imageCache.getPixelReader(whiteImageFile);
+        long imageSize = ImageCache.getImageSize(pixelReader.getImage());
+        Assert.assertEquals("The cache size must be the size of the image pixels.", imageSize, imageCache.getSize());
+
+        byte[] rasterDigest = pixelReader.getRasterDigest();
+        ImagePyramid pyramid = pixelReader.getPyramid(null);
+        Assert.assertEquals("The cache size must include the raster digest and the pyramid.",
+                imageSize + rasterDigest.length + pyramid.getSize(), imageCache.getSize());
+
+        // The pyramid doesn't fit anymore in a cache sized for the image pixels
+        ImageCache smallImageCache = new ImageCache(imageSize);
+        smallImageCache.getPixelReader(whiteImageFile).getPyramid(null);
+        Assert.assertEquals("The cache must evict the images exceeding its maximum size.", 0, smallImageCache.getEntryCount());
+        Assert.assertEquals("The evicted image must not be counted.", 0, smallImageCache.getSize());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        File blackImageFile              = AssertImage.getResourceFile("imageDiff/black.png");
+        File chessboardImageFile         = AssertImage.getResourceFile("imageDiff/black-50_white-50_chessboard.png");
+
+        // 10px x 10px RGB images, 300 bytes each. The cache can only contain 2 of them.
+        ImageCache imageCache = new ImageCache(600);
+
+        imageCache.getImage(whiteImageFile);
+        imageCache.getImage(blackImageFile);
+        // White is now the most recently used
+        imageCache.getImage(whiteImageFile);
+        // Black is evicted
+        imageCache.getImage(chessboardImageFile);
+
+        Assert.assertEquals("The least recently used image must be evicted.", 1, imageCache.getEvictionCount());
+        Assert.assertEquals("The cache must contain 2 images.", 2, imageCache.getEntryCount());
+        Assert.assertTrue("The cache must not exceed its maximum size.", imageCache.getSize() <= imageCache.getMaximumSize());
+
+        long hitCount = imageCache.getHitCount();
+        imageCache.getImage(whiteImageFile);
+        Assert.assertEquals("The most recently used image must still be cached.", hitCount + 1, imageCache.getHitCount());
+        imageCache.getImage(blackImageFile);
+        Assert.assertEquals("The evicted image must be decoded again.", hitCount + 1, imageCache.getHitCount());
+    }
+
+    @Test
+    public void testAssertImageCache() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        File whiteImageFileWithMetadata  = AssertImage.getResourceFile("imageDiff/white_with-metadata.png");
+        File chessboardImageFile         = AssertImage.getResourceFile("imageDiff/black-50_white-50_chessboard.png");
+
+        ImageCache imageCache = new ImageCache();
+        AssertImage.setImageCache(imageCache);
+        try {
+            AssertImage.assertEquals(whiteImageFile, whiteImageFileWithMetadata, 0);
+            AssertImage.assertNotEquals(whiteImageFile, chessboardImageFile, 0);
+            double diff = AssertImage.getImageDifference(whiteImageFile, chessboardImageFile);
+            Assert.assertEquals("Chessboard image and white image should be 50% different.", 0.5, diff, AssertImage.SMALL_VALUE);
+
+            // Only the expected image is cached
+            Assert.assertEquals("Only the expected image must be cached.", 1, imageCache.getEntryCount());
+            Assert.assertEquals("The expected image must be decoded once.", 1, imageCache.getMissCount());
+            Assert.assertEquals("The expected image must be reused.", 2, imageCache.getHitCount());
+        } finally {
+            AssertImage.setImageCache(null);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+public class ImageComparatorTest {
+
+    @Test
+    public void testParallelSameAsSequential() throws Exception {
+        BufferedImage expectedImage = ImageIO.read(AssertImage.getResourceFile("imageDiff/rgb-circles.png"));
+        BufferedImage actualImage = ImageIO.read(AssertImage.getResourceFile("imageDiff/rgb-circles_15.jpg"));
+
+        double sequentialDiff = new ImageComparator().getImageDifference(expectedImage, actualImage);
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+        try {
+            // Tiny tiles, to force the image to be split in a lot of bands
+            ImageComparator parallelComparator = new ImageComparator()
+                    .setParallel(true)
+                    .setForkJoinPool(forkJoinPool)
+                    .setMinimumTileSize(1000);
+
+            double parallelDiff = parallelComparator.getImageDifference(expectedImage, actualImage);
+            Assert.assertEquals("Parallel comparison must return the exact same value as the sequential comparison.",
+                    sequentialDiff, parallelDiff, 0);
+        } finally {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelAssertImage() throws Exception {
+        File chessboardImageFile         = AssertImage.getResourceFile("imageDiff/black-50_white-50_chessboard.png");
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+
+        AssertImage.setImageComparator(new ImageComparator().setParallel(true).setMinimumTileSize(1));
+        try {
+            double diff = AssertImage.getImageDifference(chessboardImageFile, whiteImageFile);
+            Assert.assertEquals("Chessboard image and white image should be 50% different.", 0.5, diff, AssertImage.SMALL_VALUE);
+        } finally {
+            AssertImage.setImageComparator(null);
+        }
+    }
+
+    @Test
+    public void testStreamingAssertImage() throws Exception {
+        File rgbCirclesPNGImageFile      = AssertImage.getResourceFile("imageDiff/rgb-circles.png");
+        File rgbCirclesJPG15ImageFile    = AssertImage.getResourceFile("imageDiff/rgb-circles_15.jpg");
+
+        double fullDiff = AssertImage.getImageDifference(rgbCirclesPNGImageFile, rgbCirclesJPG15ImageFile);
+
+        // BMP files are streamed, PNG and JPEG files are decoded whole
+        File rgbCirclesBMPImageFile = File.createTempFile("rgb-circles_", ".bmp");
+        File rgbCirclesBMP15ImageFile = File.createTempFile("rgb-circles_15_", ".bmp");
+        try {
+            Assert.assertTrue("The BMP image must be written.",
+                    ImageIO.write(ImageIO.read(rgbCirclesPNGImageFile), "bmp", rgbCirclesBMPImageFile));
+            Assert.assertTrue("The BMP image must be written.",
+                    ImageIO.write(ImageIO.read(rgbCirclesJPG15ImageFile), "bmp", rgbCirclesBMP15ImageFile));
+
+            for (int stripHeight : new int[] { 100, 1000 }) {
+                AssertImage.setImageComparator(new ImageComparator().setStripHeight(stripHeight).setParallel(true).setRasterDigestCheck(true));
+                try {
+                    double streamedDiff = AssertImage.getImageDifference(rgbCirclesBMPImageFile, rgbCirclesBMP15ImageFile);
+                    Assert.assertEquals(String.format("Streaming comparison with %d rows strips must return the exact same value as the full comparison.", stripHeight),
+                            fullDiff, streamedDiff, 0);
+                    double diff = AssertImage.getImageDifference(rgbCirclesPNGImageFile, rgbCirclesJPG15ImageFile);
+                    Assert.assertEquals("Files which can't be streamed must return the exact same value.", fullDiff, diff, 0);
+
+                    AssertImage.assertNotEquals(rgbCirclesBMPImageFile, rgbCirclesBMP15ImageFile, 0.001);
+                } finally {
+                    AssertImage.setImageComparator(null);
+                }
+            }
+        } finally {
+            rgbCirclesBMPImageFile.delete();
+            rgbCirclesBMP15ImageFile.delete();
+        }
+    }
+
+    @Test (expected = IOException.class)
+    public void testWrongDimensions() throws Exception {
+        new ImageComparator().getImageDifference(
+                new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB),
+                new BufferedImage(20, 5, BufferedImage.TYPE_INT_RGB));
+    }
+
+    @Test
+    public void testBoundedComparison() throws Exception {
+        BufferedImage blackImage = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        BufferedImage whiteImage = createFilledImage(100, 100, 0xFFFFFF);
+        ImageComparator imageComparator = new ImageComparator();
+
+        // Each row is 1% of the image, the comparison must stop after the 6th row.
+        double diff = imageComparator.getImageDifference(blackImage, whiteImage, 0.05);
+        Assert.assertEquals("The comparison must stop as soon as the difference exceeds the delta.", 0.06, diff, AssertImage.SMALL_VALUE);
+
+        // Stop on the first different pixel
+        diff = imageComparator.getImageDifference(blackImage, whiteImage, 0);
+        Assert.assertEquals("The comparison must stop on the first different pixel.", 0.0001, diff, AssertImage.SMALL_VALUE);
+
+        // Identical images must be fully compared
+        diff = imageComparator.getImageDifference(whiteImage, createFilledImage(100, 100, 0xFFFFFF), 0);
+        Assert.assertEquals("Identical images must not be reported as different.", 0, diff, AssertImage.SMALL_VALUE);
+
+        // Difference lower than the delta: full comparison
+        diff = imageComparator.getImageDifference(blackImage, whiteImage, 1);
+        Assert.assertEquals("The difference must be exact when it doesn't exceed the delta.", 1, diff, AssertImage.SMALL_VALUE);
+    }
+
+    @Test
+    public void testBoundedParallelComparison() throws Exception {
+        BufferedImage blackImage = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        BufferedImage whiteImage = createFilledImage(100, 100, 0xFFFFFF);
+        ImageComparator imageComparator = new ImageComparator().setParallel(true).setMinimumTileSize(100);
+
+        double diff = imageComparator.getImageDifference(blackImage, whiteImage, 0.05);
+        Assert.assertTrue(String.format("The difference must exceed the delta. Actual: %.2f", diff), diff > 0.05);
+
+        diff = imageComparator.getImageDifference(blackImage, whiteImage, 0);
+        Assert.assertTrue(String.format("The difference must exceed the delta. Actual: %.2f", diff), diff > 0);
+    }
+
+    protected static BufferedImage createFilledImage(int width, int height, int rgb) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y=0; y<height; y++) {
+            for (int x=0; x<width; x++) {
+                image.setRGB(x, y, rgb);
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+public class ImageMetricsTest {
+
+    @Test
+    public void testMeanAbsoluteError() throws Exception {
+        BufferedImage expectedImage = PixelReaderTest.createRandomImage(101, 67, BufferedImage.TYPE_INT_RGB, 1);
+        BufferedImage actualImage = PixelReaderTest.createRandomImage(101, 67, BufferedImage.TYPE_INT_RGB, 2);
+
+        ImageComparator comparator = new ImageComparator();
+        Assert.assertEquals("The mean absolute error metric must give the default difference.",
+                comparator.getImageDifference(expectedImage, actualImage),
+                comparator.getMetricValue(expectedImage, actualImage, ImageMetrics.MEAN_ABSOLUTE_ERROR), 0);
+    }
+
+    @Test
+    public void testRootMeanSquareError() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        File blackImageFile              = AssertImage.getResourceFile("imageDiff/black.png");
+        File chessboardImageFile         = AssertImage.getResourceFile("imageDiff/black-50_white-50_chessboard.png");
+
+        BufferedImage whiteImage = ImageIO.read(whiteImageFile);
+        ImageComparator comparator = new ImageComparator();
+
+        Assert.assertEquals("White and black images must have a RMSE of 1.",
+                1, comparator.getMetricValue(whiteImage, ImageIO.read(blackImageFile), ImageMetrics.ROOT_MEAN_SQUARE_ERROR), AssertImage.SMALL_VALUE);
+        // Half the pixels have an error of 255: sqrt(0.5)
+        Assert.assertEquals("Chessboard and white images must have a RMSE of sqrt(0.5).",
+                Math.sqrt(0.5), comparator.getMetricValue(whiteImage, ImageIO.read(chessboardImageFile), ImageMetrics.ROOT_MEAN_SQUARE_ERROR), AssertImage.SMALL_VALUE);
+        // 10 * log10(1 / 0.5)
+        Assert.assertEquals("Chessboard and white images must have a PSNR of 3dB.",
+                10 * Math.log10(2), comparator.getMetricValue(whiteImage, ImageIO.read(chessboardImageFile), ImageMetrics.PEAK_SIGNAL_TO_NOISE_RATIO), AssertImage.SMALL_VALUE);
+        Assert.assertEquals("Identical images must have an infinite PSNR.",
+                Double.POSITIVE_INFINITY, comparator.getMetricValue(whiteImage, ImageIO.read(whiteImageFile), ImageMetrics.PEAK_SIGNAL_TO_NOISE_RATIO), 0);
+    }
+
+    @Test
+    public void testAlphaMeanAbsoluteError() throws Exception {
+        BufferedImage transparentRedImage = createFilledArgbImage(20, 10, 0x00FF0000);
+        BufferedImage transparentBlueImage = createFilledArgbImage(20, 10, 0x000000FF);
+        BufferedImage opaqueBlueImage = createFilledArgbImage(20, 10, 0xFF0000FF);
+
+        ImageComparator comparator = new ImageComparator().setMetric(ImageMetrics.ALPHA_MEAN_ABSOLUTE_ERROR);
+        Assert.assertEquals("The colour of transparent pixels must be ignored.",
+                0, comparator.getImageDifference(transparentRedImage, transparentBlueImage), 0);
+        // Alpha and blue channels are different: 2 channels out of 4
+        Assert.assertEquals("The alpha channel must be compared.",
+                0.5, comparator.getImageDifference(transparentBlueImage, opaqueBlueImage), AssertImage.SMALL_VALUE);
+
+        Assert.assertEquals("The default metric must ignore the alpha channel.",
+                2 / 3.0, new ImageComparator().getImageDifference(transparentRedImage, transparentBlueImage), AssertImage.SMALL_VALUE);
+
+        // The raster digest ignores the alpha channel
+        ImageComparator digestComparator = new ImageComparator().setMetric(ImageMetrics.ALPHA_MEAN_ABSOLUTE_ERROR).setRasterDigestCheck(true);
+        Assert.assertEquals("The raster digest check must not hide alpha differences.",
+                0.5, digestComparator.getImageDifference(transparentBlueImage, opaqueBlueImage), AssertImage.SMALL_VALUE);
+    }
+
+    @Test
+    public void testStructuralSimilarity() throws Exception {
+        File pngImageFile                = AssertImage.getResourceFile("imageDiff/rgb-circles.png");
+        File jpg75ImageFile              = AssertImage.getResourceFile("imageDiff/rgb-circles_75.jpg");
+        File jpg15ImageFile              = AssertImage.getResourceFile("imageDiff/rgb-circles_15.jpg");
+
+        BufferedImage pngImage = ImageIO.read(pngImageFile);
+        ImageComparator comparator = new ImageComparator();
+
+        Assert.assertEquals("Identical images must have a SSIM of 1.",
+                1, comparator.getMetricValue(pngImage, ImageIO.read(pngImageFile), ImageMetrics.ssim()), AssertImage.SMALL_VALUE);
+
+        double ssim75 = comparator.getMetricValue(pngImage, ImageIO.read(jpg75ImageFile), ImageMetrics.ssim());
+        double ssim15 = comparator.getMetricValue(pngImage, ImageIO.read(jpg15ImageFile), ImageMetrics.ssim());
+        Assert.assertTrue(String.format("JPEG compression must lower the SSIM: %f", ssim75), ssim75 < 1);
+        Assert.assertTrue(String.format("Stronger JPEG compression must lower the SSIM further: %f, %f", ssim15, ssim75), ssim15 < ssim75);
+
+        // Images smaller than the window
+        BufferedImage smallImage = PixelReaderTest.createRandomImage(5, 3, BufferedImage.TYPE_INT_RGB, 1);
+        Assert.assertEquals("Small identical images must have a SSIM of 1.",
+                1, comparator.getMetricValue(smallImage, PixelReaderTest.createRandomImage(5, 3, BufferedImage.TYPE_INT_RGB, 1), ImageMetrics.ssim()), AssertImage.SMALL_VALUE);
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        BufferedImage expectedImage = PixelReaderTest.createRandomImage(300, 211, BufferedImage.TYPE_INT_RGB, 1);
+        BufferedImage actualImage = PixelReaderTest.createRandomImage(300, 211, BufferedImage.TYPE_INT_RGB, 2);
+
+        ImageComparator sequentialComparator = new ImageComparator();
+        ImageComparator parallelComparator = new ImageComparator().setParallel(true).setMinimumTileSize(300 * 10);
+
+        ImageMetric[] metrics = {
+            ImageMetrics.ROOT_MEAN_SQUARE_ERROR,
+            ImageMetrics.PEAK_SIGNAL_TO_NOISE_RATIO,
+            ImageMetrics.ALPHA_MEAN_ABSOLUTE_ERROR,
+            ImageMetrics.ssim(),
+            ImageMetrics.ssim(3)
+        };
+        for (ImageMetric metric : metrics) {
+            Assert.assertEquals(String.format("%s: the parallel value must be the same as the sequential value.", metric.getName()),
+                    sequentialComparator.getMetricValue(expectedImage, actualImage, metric),
+                    parallelComparator.getMetricValue(expectedImage, actualImage, metric), 1E-9);
+        }
+    }
+
+    @Test
+    public void testAssertImageMetric() throws Exception {
+        File pngImageFile                = AssertImage.getResourceFile("imageDiff/rgb-circles.png");
+        File jpg75ImageFile              = AssertImage.getResourceFile("imageDiff/rgb-circles_75.jpg");
+
+        AssertImage.setImageComparator(new ImageComparator().setMetric(ImageMetrics.ssim()));
+        try {
+            double difference = AssertImage.getImageDifference(pngImageFile, jpg75ImageFile);
+            Assert.assertTrue(String.format("The SSIM difference must be used: %f", difference), difference > 0);
+            AssertImage.assertEquals(pngImageFile, jpg75ImageFile, difference);
+            AssertImage.assertNotEquals(pngImageFile, jpg75ImageFile, difference / 2);
+        } finally {
+            AssertImage.setImageComparator(null);
+        }
+    }
+
+    static BufferedImage createFilledArgbImage(int width, int height, int argb) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y=0; y<height; y++) {
+            for (int x=0; x<width; x++) {
+                image.setRGB(x, y, argb);
+            }
+        }
+        return image;
+    }
+}
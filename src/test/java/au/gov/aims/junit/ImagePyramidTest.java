@@ -0,0 +1,164 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class ImagePyramidTest {
+
+    @Test
+    public void testBounds() throws Exception {
+        BufferedImage expectedImage = PixelReaderTest.createRandomImage(101, 67, BufferedImage.TYPE_INT_RGB, 1);
+        BufferedImage actualImage = createModifiedImage(expectedImage, 2);
+
+        long exactSum = new ImageComparator().getChannelDifference(
+                PixelReader.create(expectedImage), PixelReader.create(actualImage), Double.POSITIVE_INFINITY).getSum();
+
+        ImagePyramid expectedPyramid = ImagePyramid.create(PixelReader.create(expectedImage), null);
+        ImagePyramid actualPyramid = ImagePyramid.create(PixelReader.create(actualImage), null);
+
+        // 101px: 13, 7, 4, 2, 1 columns
+        Assert.assertEquals("Wrong number of levels.", 5, expectedPyramid.getLevelCount());
+        for (int levelIndex=0; levelIndex<expectedPyramid.getLevelCount(); levelIndex++) {
+            ImagePyramid.Level expectedLevel = expectedPyramid.getLevel(levelIndex);
+            ImagePyramid.Level actualLevel = actualPyramid.getLevel(levelIndex);
+
+            long lowerBound = 0, upperBound = 0, pixelCount = 0;
+            for (int block=0; block<expectedLevel.getBlockCount(); block++) {
+                lowerBound += expectedLevel.getLowerBound(actualLevel, block);
+                upperBound += expectedLevel.getUpperBound(actualLevel, block);
+                pixelCount += expectedLevel.getPixelCount(block);
+            }
+            Assert.assertEquals(String.format("Level %d must cover every pixel.", levelIndex), 101 * 67, pixelCount);
+            Assert.assertTrue(String.format("Level %d lower bound %d must not exceed the exact sum %d.", levelIndex, lowerBound, exactSum),
+                    lowerBound <= exactSum);
+            Assert.assertTrue(String.format("Level %d upper bound %d must not be below the exact sum %d.", levelIndex, upperBound, exactSum),
+                    upperBound >= exactSum);
+        }
+
+        // Identical images: the lower bound is 0
+        ImagePyramid.Level level = expectedPyramid.getLevel(0);
+        for (int block=0; block<level.getBlockCount(); block++) {
+            Assert.assertEquals("Identical blocks must have a lower bound of 0.", 0, level.getLowerBound(level, block));
+        }
+    }
+
+    @Test
+    public void testSameDecisionAsFullComparison() throws Exception {
+        ImageComparator fullComparator = new ImageComparator();
+        ImageComparator pyramidComparator = new ImageComparator().setPyramidCheck(true);
+        double[] deltas = { 0.0001, 0.001, 0.005, 0.01, 0.02, 0.05, 0.1, 0.3, 0.5 };
+
+        for (int seed=0; seed<20; seed++) {
+            BufferedImage expectedImage = PixelReaderTest.createRandomImage(64 + seed * 7, 40 + seed * 3, BufferedImage.TYPE_INT_RGB, seed);
+            BufferedImage actualImage = createModifiedImage(expectedImage, seed);
+            double exactDifference = fullComparator.getImageDifference(expectedImage, actualImage);
+
+            for (double delta : deltas) {
+                ChannelDifference difference = pyramidComparator.getChannelDifference(
+                        PixelReader.create(expectedImage), PixelReader.create(actualImage), delta);
+                boolean pyramidFails = difference.isExceeded() || difference.getDifference() > delta;
+                boolean fullFails = exactDifference > delta;
+
+                String message = String.format("Seed %d, delta %f, exact difference %f, pyramid difference %f",
+                        seed, delta, exactDifference, difference.getDifference());
+                Assert.assertEquals(message, fullFails, pyramidFails);
+                if (pyramidFails) {
+                    Assert.assertTrue(message, difference.getDifference() <= exactDifference + AssertImage.SMALL_VALUE);
+                } else if (difference.isUpperBound()) {
+                    Assert.assertTrue(message, difference.getDifference() >= exactDifference - AssertImage.SMALL_VALUE);
+                } else {
+                    Assert.assertEquals(message, exactDifference, difference.getDifference(), AssertImage.SMALL_VALUE);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUpperBoundMessage() throws Exception {
+        BufferedImage expectedImage = PixelReaderTest.createRandomImage(64, 64, BufferedImage.TYPE_INT_RGB, 1);
+        BufferedImage actualImage = PixelReaderTest.createRandomImage(64, 64, BufferedImage.TYPE_INT_RGB, 2);
+
+        AssertImage.setImageComparator(new ImageComparator().setPyramidCheck(true));
+        try {
+            ChannelDifference difference = AssertImage.getImageComparator().getChannelDifference(
+                    PixelReader.create(expectedImage), PixelReader.create(actualImage), 0.9);
+            Assert.assertTrue("The difference must be decided from the bounds.", difference.isUpperBound());
+
+            try {
+                AssertImage.assertNotEquals(expectedImage, actualImage, 0.9);
+                Assert.fail("The images difference is below the delta.");
+            } catch(AssertionError ex) {
+                Assert.assertTrue(String.format("The difference must be reported as an upper bound: %s", ex.getMessage()),
+                        ex.getMessage().contains("Difference: at most "));
+            }
+        } finally {
+            AssertImage.setImageComparator(null);
+        }
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        PixelReader pixelReader = PixelReader.create(PixelReaderTest.createRandomImage(300, 211, BufferedImage.TYPE_INT_ARGB, 42));
+        ImagePyramid sequentialPyramid = ImagePyramid.create(pixelReader, null);
+        ImagePyramid parallelPyramid = ImagePyramid.create(pixelReader, ForkJoinPool.commonPool());
+
+        for (int levelIndex=0; levelIndex<sequentialPyramid.getLevelCount(); levelIndex++) {
+            ImagePyramid.Level sequentialLevel = sequentialPyramid.getLevel(levelIndex);
+            ImagePyramid.Level parallelLevel = parallelPyramid.getLevel(levelIndex);
+            Assert.assertTrue("Parallel sums must be the same.", Arrays.equals(sequentialLevel.sums, parallelLevel.sums));
+            Assert.assertTrue("Parallel minimums must be the same.", Arrays.equals(sequentialLevel.minimums, parallelLevel.minimums));
+            Assert.assertTrue("Parallel maximums must be the same.", Arrays.equals(sequentialLevel.maximums, parallelLevel.maximums));
+        }
+
+        Assert.assertSame("The pyramid must be kept with the reader.", pixelReader.getPyramid(null), pixelReader.getPyramid(null));
+    }
+
+    /**
+     * Copy the image, with small changes everywhere and a large change in a random rectangle.
+     */
+    private static BufferedImage createModifiedImage(BufferedImage image, long seed) {
+        Random random = new Random(seed);
+        int width = image.getWidth(), height = image.getHeight();
+        BufferedImage modifiedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        int rectangleX = random.nextInt(width), rectangleY = random.nextInt(height);
+        int rectangleWidth = random.nextInt(width / 2 + 1), rectangleHeight = random.nextInt(height / 2 + 1);
+        int noise = random.nextInt(4);
+
+        for (int y=0; y<height; y++) {
+            for (int x=0; x<width; x++) {
+                int rgb = image.getRGB(x, y);
+                if (x >= rectangleX && x < rectangleX + rectangleWidth && y >= rectangleY && y < rectangleY + rectangleHeight) {
+                    rgb = ~rgb;
+                } else if (noise > 0 && random.nextInt(noise + 1) == 0) {
+                    rgb ^= 0x010101;
+                }
+                modifiedImage.setRGB(x, y, rgb);
+            }
+        }
+        return modifiedImage;
+    }
+}
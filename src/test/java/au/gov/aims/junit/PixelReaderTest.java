@@ -0,0 +1,129 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Test that the PixelReader returns exactly the same values as BufferedImage.getRGB,
+ * for every fast path and for the generic fallback.
+ */
+public class PixelReaderTest {
+    private static final int[] IMAGE_TYPES = {
+        BufferedImage.TYPE_INT_ARGB,
+        BufferedImage.TYPE_INT_RGB,
+        BufferedImage.TYPE_3BYTE_BGR,
+        BufferedImage.TYPE_4BYTE_ABGR,
+        BufferedImage.TYPE_BYTE_GRAY,
+
+        // Generic fallback
+        BufferedImage.TYPE_INT_ARGB_PRE,
+        BufferedImage.TYPE_USHORT_565_RGB,
+        BufferedImage.TYPE_BYTE_INDEXED
+    };
+
+    @Test
+    public void testReadRow() {
+        for (int imageType : IMAGE_TYPES) {
+            BufferedImage image = createRandomImage(37, 23, imageType, 42);
+            assertSameAsGetRGB(String.format("Image type %d", imageType), image);
+        }
+    }
+
+    @Test
+    public void testReadRowSubImage() {
+        for (int imageType : IMAGE_TYPES) {
+            BufferedImage image = createRandomImage(37, 23, imageType, 42);
+            BufferedImage subImage = image.getSubimage(5, 3, 20, 11);
+            assertSameAsGetRGB(String.format("Sub image of type %d", imageType), subImage);
+        }
+    }
+
+    @Test
+    public void testReadRaster() {
+        // Raster samples are RGB(A) for the interleaved byte image types, with no colour conversion
+        for (int imageType : new int[] { BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR }) {
+            BufferedImage image = createRandomImage(37, 23, imageType, 42);
+            PixelReader imageReader = PixelReader.create(image);
+            PixelReader rasterReader = PixelReader.create(image.getRaster());
+
+            int[] imageRow = imageReader.createRowBuffer();
+            int[] rasterRow = rasterReader.createRowBuffer();
+            for (int y=0; y<image.getHeight(); y++) {
+                imageReader.readRow(y, imageRow);
+                rasterReader.readRow(y, rasterRow);
+                for (int x=0; x<image.getWidth(); x++) {
+                    Assert.assertEquals(String.format("Raster of image type %d, pixel [%d, %d]", imageType, x, y),
+                            imageRow[x], rasterRow[x]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReadBinaryRaster() throws Exception {
+        // 1 bit samples must be scaled up to 8 bits: black and white rasters are 100% different
+        BufferedImage blackImage = new BufferedImage(17, 5, BufferedImage.TYPE_BYTE_BINARY);
+        BufferedImage whiteImage = new BufferedImage(17, 5, BufferedImage.TYPE_BYTE_BINARY);
+        Graphics2D graphics = whiteImage.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 17, 5);
+        graphics.dispose();
+
+        PixelReader rasterReader = PixelReader.create(whiteImage.getRaster());
+        int[] row = rasterReader.createRowBuffer();
+        rasterReader.readRow(0, row);
+        Assert.assertEquals("1 bit samples must be scaled to 8 bits.", 0xFFFFFFFF, row[0]);
+
+        double diff = new ImageComparator().getImageDifference(blackImage.getRaster(), whiteImage.getRaster());
+        Assert.assertEquals("Black and white binary rasters must be 100% different.", 1, diff, AssertImage.SMALL_VALUE);
+    }
+
+    private static void assertSameAsGetRGB(String message, BufferedImage image) {
+        int width = image.getWidth(),
+            height = image.getHeight();
+
+        PixelReader pixelReader = PixelReader.create(image);
+        int[] row = new int[width];
+        for (int y=0; y<height; y++) {
+            pixelReader.readRow(y, row);
+            for (int x=0; x<width; x++) {
+                Assert.assertEquals(String.format("%s, pixel [%d, %d]", message, x, y),
+                        image.getRGB(x, y), row[x]);
+            }
+        }
+    }
+
+    protected static BufferedImage createRandomImage(int width, int height, int imageType, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, imageType);
+        for (int y=0; y<height; y++) {
+            for (int x=0; x<width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+}
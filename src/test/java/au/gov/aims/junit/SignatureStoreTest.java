@@ -0,0 +1,200 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SignatureStoreTest {
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File directory = Files.createTempDirectory("signatures_").toFile();
+        try {
+            File imageFile = new File(directory, "expected.png");
+            BufferedImage image = PixelReaderTest.createRandomImage(45, 30, BufferedImage.TYPE_INT_RGB, 1);
+            ImageIO.write(image, "png", imageFile);
+
+            File storeFile = new File(directory, "store/signatures.bin");
+            SignatureStore store = new SignatureStore(storeFile);
+            Assert.assertNull("The store must be empty.", store.getSignature(imageFile));
+            store.putSignature(imageFile, PixelReader.create(image));
+            Assert.assertFalse("The store must only be written when saved.", storeFile.exists());
+            store.save();
+            Assert.assertTrue("The store file must be created.", storeFile.isFile());
+
+            SignatureStore loadedStore = new SignatureStore(storeFile);
+            Assert.assertEquals("Wrong number of entries.", 1, loadedStore.getEntryCount());
+            ImageSignature signature = store.getSignature(imageFile);
+            ImageSignature loadedSignature = loadedStore.getSignature(imageFile);
+            Assert.assertNotNull("The signature must be loaded.", loadedSignature);
+            Assert.assertEquals("Wrong width.", 45, loadedSignature.getWidth());
+            Assert.assertEquals("Wrong height.", 30, loadedSignature.getHeight());
+            Assert.assertArrayEquals("Wrong file digest.", signature.getFileDigest(), loadedSignature.getFileDigest());
+            Assert.assertArrayEquals("Wrong raster digest.", signature.getRasterDigest(), loadedSignature.getRasterDigest());
+            Assert.assertEquals("Wrong number of pyramid levels.",
+                    signature.getPyramid().getLevelCount(), loadedSignature.getPyramid().getLevelCount());
+            for (int levelIndex=0; levelIndex<signature.getPyramid().getLevelCount(); levelIndex++) {
+                ImagePyramid.Level level = signature.getPyramid().getLevel(levelIndex);
+                ImagePyramid.Level loadedLevel = loadedSignature.getPyramid().getLevel(levelIndex);
+                Assert.assertTrue("Wrong sums.", Arrays.equals(level.sums, loadedLevel.sums));
+                Assert.assertTrue("Wrong minimums.", Arrays.equals(level.minimums, loadedLevel.minimums));
+                Assert.assertTrue("Wrong maximums.", Arrays.equals(level.maximums, loadedLevel.maximums));
+            }
+
+            // 45 x 30 pixels: 6 x 4 blocks of 8 pixels
+            BufferedImage preview = loadedSignature.getPreview();
+            Assert.assertEquals("Wrong preview width.", 6, preview.getWidth());
+            Assert.assertEquals("Wrong preview height.", 4, preview.getHeight());
+
+            // Touched, but unchanged: the digest is checked
+            Assert.assertTrue(imageFile.setLastModified(imageFile.lastModified() - 60000));
+            Assert.assertNotNull("The signature of an unchanged file must be kept.", loadedStore.getSignature(imageFile));
+
+            // Changed: the signature is stale
+            ImageIO.write(PixelReaderTest.createRandomImage(45, 30, BufferedImage.TYPE_INT_RGB, 2), "png", imageFile);
+            Assert.assertTrue(imageFile.setLastModified(imageFile.lastModified() - 120000));
+            Assert.assertNull("The signature of a modified file must be ignored.", loadedStore.getSignature(imageFile));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testCorruptedStore() throws Exception {
+        File storeFile = File.createTempFile("signatures_", ".bin");
+        try {
+            Files.write(storeFile.toPath(), new byte[] { 1, 2, 3 });
+            SignatureStore store = new SignatureStore(storeFile);
+            Assert.assertEquals("A corrupted store must be ignored.", 0, store.getEntryCount());
+        } finally {
+            storeFile.delete();
+        }
+    }
+
+    @Test
+    public void testAssertWithSignature() throws Exception {
+        File whiteImageFile              = AssertImage.getResourceFile("imageDiff/white.png");
+        File whiteImageFileWithMetadata  = AssertImage.getResourceFile("imageDiff/white_with-metadata.png");
+        File chessboardImageFile         = AssertImage.getResourceFile("imageDiff/black-50_white-50_chessboard.png");
+
+        File storeFile = File.createTempFile("signatures_", ".bin");
+        storeFile.delete();
+        SignatureStore store = new SignatureStore(storeFile);
+        List<ComparisonMetrics> metricsList = new ArrayList<ComparisonMetrics>();
+        ComparisonListener listener = metricsList::add;
+
+        AssertImage.setSignatureStore(store);
+        AssertImage.addComparisonListener(listener);
+        try {
+            // First comparison: the signature of the expected image is computed
+            AssertImage.assertEquals(whiteImageFile, whiteImageFileWithMetadata, 0);
+            Assert.assertEquals("The signature must be stored.", 1, store.getEntryCount());
+            store.save();
+
+            // Same store, in another test run
+            try (SignatureStore reloadedStore = new SignatureStore(storeFile)) {
+                AssertImage.setSignatureStore(reloadedStore);
+                AssertImage.assertEquals(whiteImageFile, whiteImageFileWithMetadata, 0);
+                AssertImage.assertNotEquals(whiteImageFile, chessboardImageFile, 0.1);
+            }
+        } finally {
+            AssertImage.removeComparisonListener(listener);
+            AssertImage.setSignatureStore(null);
+            storeFile.delete();
+        }
+
+        Assert.assertEquals("Wrong number of comparisons.", 3, metricsList.size());
+        Assert.assertTrue("The expected image must be decoded without signature.", metricsList.get(0).getExpectedDecodeNanos() > 0);
+        for (int i=1; i<3; i++) {
+            ComparisonMetrics metrics = metricsList.get(i);
+            Assert.assertEquals("The expected image must not be decoded.", 0, metrics.getExpectedDecodeNanos());
+            Assert.assertTrue("The actual image must be decoded.", metrics.getActualDecodeNanos() > 0);
+        }
+        Assert.assertEquals("Identical images must have no difference.", 0, metricsList.get(1).getDifference(), AssertImage.SMALL_VALUE);
+    }
+
+    @Test
+    public void testSameDecisionAsFullComparison() throws Exception {
+        ImageComparator comparator = new ImageComparator();
+        BufferedImage expectedImage = PixelReaderTest.createRandomImage(64, 48, BufferedImage.TYPE_INT_RGB, 3);
+        BufferedImage actualImage = ImageComparatorTest.createFilledImage(64, 48, 0x000000);
+        double exactDifference = comparator.getImageDifference(expectedImage, actualImage);
+
+        ImagePyramid pyramid = ImagePyramid.create(PixelReader.create(expectedImage), null);
+        ImageSignature signature = new ImageSignature(0, 0, new byte[0],
+                PixelReader.create(expectedImage).getRasterDigest(), pyramid);
+
+        ChannelDifference identical = comparator.getSignatureDifference(signature, PixelReader.create(expectedImage), 0);
+        Assert.assertNotNull("Identical images must be confirmed.", identical);
+        Assert.assertEquals("Identical images must have no difference.", 0, identical.getDifference(), AssertImage.SMALL_VALUE);
+
+        ChannelDifference rejected = comparator.getSignatureDifference(signature, PixelReader.create(actualImage), exactDifference / 2);
+        Assert.assertNotNull("Very different images must be rejected.", rejected);
+        Assert.assertTrue("The difference must exceed the delta.", rejected.isExceeded());
+        Assert.assertTrue("The difference must be a lower bound.", rejected.getDifference() <= exactDifference + AssertImage.SMALL_VALUE);
+
+        Assert.assertNull("The expected pixels are needed without delta.",
+                comparator.getSignatureDifference(signature, PixelReader.create(actualImage), Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void testSignatureWithOtherMetric() throws Exception {
+        // Same colours, only the Alpha values are different
+        BufferedImage opaqueImage = ImageMetricsTest.createFilledArgbImage(20, 10, 0xFF0000FF);
+        BufferedImage transparentImage = ImageMetricsTest.createFilledArgbImage(20, 10, 0x000000FF);
+
+        ImagePyramid pyramid = ImagePyramid.create(PixelReader.create(opaqueImage), null);
+        ImageSignature signature = new ImageSignature(0, 0, new byte[0],
+                PixelReader.create(opaqueImage).getRasterDigest(), pyramid);
+
+        Assert.assertNotNull("The signature must be used with the default metric.",
+                new ImageComparator().getSignatureDifference(signature, PixelReader.create(transparentImage), 0));
+
+        ImageComparator alphaComparator = new ImageComparator().setMetric(ImageMetrics.ALPHA_MEAN_ABSOLUTE_ERROR);
+        Assert.assertNull("The signature ignores the Alpha values, it must not be used with other metrics.",
+                alphaComparator.getSignatureDifference(signature, PixelReader.create(transparentImage), 0));
+
+        ImageComparator diffReportComparator = new ImageComparator().setDiffReportEnabled(true);
+        Assert.assertNull("The signature can't produce a diff report.",
+                diffReportComparator.getSignatureDifference(signature, PixelReader.create(opaqueImage), 0));
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Copyright (C) 2019 Australian Institute of Marine Science
+ *
+ *  Contact: Gael Lafond <g.lafond@aims.gov.au>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package au.gov.aims.junit;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class StripPixelReaderTest {
+
+    @Test
+    public void testReadRow() throws Exception {
+        File rgbCirclesJPG75ImageFile    = AssertImage.getResourceFile("imageDiff/rgb-circles_75.jpg");
+        PixelReader imageReader = PixelReader.create(ImageIO.read(rgbCirclesJPG75ImageFile));
+
+        // BMP can decode a strip without decoding the rows before it
+        File bmpImageFile = File.createTempFile("rgb-circles_", ".bmp");
+        try {
+            Assert.assertTrue("The BMP image must be written.", ImageIO.write(imageReader.getImage(), "bmp", bmpImageFile));
+            assertSameRows(imageReader, bmpImageFile);
+        } finally {
+            bmpImageFile.delete();
+        }
+    }
+
+    @Test
+    public void testReadRowTIFF() throws Exception {
+        File rgbCirclesJPG75ImageFile    = AssertImage.getResourceFile("imageDiff/rgb-circles_75.jpg");
+        PixelReader imageReader = PixelReader.create(ImageIO.read(rgbCirclesJPG75ImageFile));
+
+        // TIFF decodes only the strips or tiles of the region.
+        // There is no TIFF writer before Java 9.
+        File tiffImageFile = File.createTempFile("rgb-circles_", ".tiff");
+        try {
+            Assume.assumeTrue("No TIFF writer.", ImageIO.write(imageReader.getImage(), "tiff", tiffImageFile));
+            assertSameRows(imageReader, tiffImageFile);
+        } finally {
+            tiffImageFile.delete();
+        }
+    }
+
+    private static void assertSameRows(PixelReader imageReader, File imageFile) throws Exception {
+        // Strip height which is not a divisor of the image height (896px)
+        try (PixelReader stripReader = StripPixelReader.open(imageFile, 100)) {
+            Assert.assertTrue("The strip reader must be created.", stripReader instanceof StripPixelReader);
+            Assert.assertEquals("Wrong image width.", imageReader.getWidth(), stripReader.getWidth());
+            Assert.assertEquals("Wrong image height.", imageReader.getHeight(), stripReader.getHeight());
+
+            int[] imageRow = imageReader.createRowBuffer();
+            int[] stripRow = stripReader.createRowBuffer();
+
+            // Read the rows in order, then a few rows backward
+            int height = imageReader.getHeight();
+            for (int y : new int[] { 0, 1, 99, 100, 101, 550, 895, 894, 3, 0 }) {
+                imageReader.readRow(y, imageRow);
+                stripReader.readRow(y, stripRow);
+                Assert.assertArrayEquals(String.format("Row %d must be the same as the fully decoded image.", y), imageRow, stripRow);
+            }
+            for (int y=0; y<height; y++) {
+                imageReader.readRow(y, imageRow);
+                stripReader.readRow(y, stripRow);
+                Assert.assertArrayEquals(String.format("Row %d must be the same as the fully decoded image.", y), imageRow, stripRow);
+            }
+        }
+    }
+
+    @Test
+    public void testNotRandomAccess() throws Exception {
+        File rgbCirclesJPG75ImageFile    = AssertImage.getResourceFile("imageDiff/rgb-circles_75.jpg");
+        File rgbCirclesPNGImageFile      = AssertImage.getResourceFile("imageDiff/rgb-circles.png");
+
+        // These formats would decode the rows before each strip again: they are decoded whole
+        for (File imageFile : new File[] { rgbCirclesJPG75ImageFile, rgbCirclesPNGImageFile }) {
+            try (PixelReader pixelReader = StripPixelReader.open(imageFile, 100)) {
+                Assert.assertNotNull("The reader must be created.", pixelReader);
+                Assert.assertFalse(String.format("%s must not be streamed.", imageFile.getName()), pixelReader.isSequential());
+                Assert.assertNotNull("The image must be decoded.", pixelReader.getImage());
+            }
+        }
+    }
+
+    @Test (expected = IOException.class)
+    public void testTruncatedImage() throws Exception {
+        // BMP signature, without the rest of the header
+        File truncatedImage = File.createTempFile("truncated_", ".bmp");
+        try {
+            Files.write(truncatedImage.toPath(), new byte[] { 'B', 'M', 0, 0 });
+            StripPixelReader.open(truncatedImage, 10);
+        } finally {
+            truncatedImage.delete();
+        }
+    }
+
+    @Test
+    public void testNotAnImage() throws Exception {
+        File notAnImage = File.createTempFile("not-an-image_", ".png");
+        try {
+            Assert.assertNull("A file which is not an image must not be read.", StripPixelReader.open(notAnImage, 10));
+        } finally {
+            notAnImage.delete();
+        }
+    }
+}